@@ -0,0 +1,101 @@
+package ir;
+
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ *  Turns texts into tokens with a fixed set of tokenizer options.
+ *
+ *  The patterns for non-standard words are read and compiled once, when
+ *  the analyzer is created. An analyzer can be shared between threads:
+ *  every thread gets its own tokenizer, which is reset and reused for
+ *  each new text.
+ *
+ *  The tokens are then run through a chain of token filters (stop words,
+ *  stemming, ...). The same analyzer is used for documents and queries, so
+ *  that both end up with the same terms.
+ */
+public class Analyzer {
+
+    /** Should every character be translated into its lowercase counterpart? */
+    final boolean case_folding;
+
+    /** Should diacritics be removed? */
+    final boolean remove_diacritics;
+
+    /** Should punctuation be removed? */
+    final boolean remove_punctuation;
+
+    /** The compiled patterns matching non-standard words, or <code>null</code>. */
+    final PatternSet patterns;
+
+    /** The filters, in the order they are applied. */
+    private volatile TokenFilter[] filters = new TokenFilter[0];
+
+    /** The tokenizer of each thread. */
+    private final ThreadLocal<Tokenizer> tokenizers;
+
+
+    /**
+     *  @param pattern_file The name of the file containing regular expressions
+     *         for non-standard words, or <code>null</code>.
+     */
+    public Analyzer( boolean case_folding, boolean remove_diacritics, boolean remove_punctuation, String pattern_file ) {
+        this.case_folding = case_folding;
+        this.remove_diacritics = remove_diacritics;
+        this.remove_punctuation = remove_punctuation;
+        patterns = pattern_file == null ? null : PatternSet.read( pattern_file );
+        tokenizers = ThreadLocal.withInitial(
+            () -> new Tokenizer( null, case_folding, remove_diacritics, remove_punctuation, patterns ));
+    }
+
+
+    /**
+     *  Returns the calling thread's tokenizer, reset to read from
+     *  <code>reader</code>. The tokenizer must not be used after the
+     *  next call to this method from the same thread.
+     */
+    public Tokenizer tokenizer( Reader reader ) {
+        Tokenizer tok = tokenizers.get();
+        tok.reset( reader );
+        return tok;
+    }
+
+
+    /**
+     *  Appends a filter to the chain. Filters should be added before the
+     *  analyzer is taken into use.
+     */
+    public Analyzer addFilter( TokenFilter filter ) {
+        TokenFilter[] f = Arrays.copyOf( filters, filters.length + 1 );
+        f[filters.length] = filter;
+        filters = f;
+        return this;
+    }
+
+
+    /**
+     *  Runs a token through the filter chain, changing it in place.
+     *
+     *  @return <code>false</code> if one of the filters dropped the token.
+     */
+    public boolean filter( CharSlice token ) {
+        for ( TokenFilter f : filters ) {
+            if ( !f.accept( token )) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     *  Runs a single term (e.g. a query term) through the filter chain.
+     *
+     *  @return the filtered term, or <code>null</code> if it was dropped.
+     */
+    public String filter( String term ) {
+        CharSlice token = new CharSlice( term.toCharArray(), 0, term.length() );
+        return filter( token ) ? token.toString() : null;
+    }
+}
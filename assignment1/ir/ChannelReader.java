@@ -0,0 +1,62 @@
+package ir;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ *  Reads a file with positional reads on its channel.
+ *
+ *  Unlike seek followed by read on a RandomAccessFile, a positional read
+ *  does not move a file pointer shared by all readers, so any number of
+ *  threads can read through the same ChannelReader at once.
+ */
+public class ChannelReader {
+
+    final FileChannel channel;
+
+
+    public ChannelReader( RandomAccessFile file ) {
+        channel = file.getChannel();
+    }
+
+
+    public long length() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     *  Reads <code>length</code> bytes starting at <code>pos</code> into
+     *  <code>dst</code> from <code>offset</code>.
+     *
+     *  @throws EOFException if the file ends before that.
+     */
+    public void read( long pos, byte[] dst, int offset, int length ) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap( dst, offset, length );
+        while ( buffer.hasRemaining() ) {
+            int n = channel.read( buffer, pos );
+            if ( n < 0 ) {
+                throw new EOFException();
+            }
+            pos += n;
+        }
+    }
+
+    public void read( long pos, byte[] dst ) throws IOException {
+        read( pos, dst, 0, dst.length );
+    }
+
+    public int readInt( long pos ) throws IOException {
+        byte[] b = new byte[4];
+        read( pos, b );
+        return ByteBuffer.wrap( b ).getInt();
+    }
+
+    public long readLong( long pos ) throws IOException {
+        byte[] b = new byte[8];
+        read( pos, b );
+        return ByteBuffer.wrap( b ).getLong();
+    }
+}
@@ -0,0 +1,89 @@
+package ir;
+
+/**
+ *  A set of words that can be looked up with any CharSequence (such as a
+ *  CharSlice) without first turning it into a String. Uses open addressing
+ *  with linear probing.
+ */
+public class CharArraySet {
+
+    /** The words, or <code>null</code> for empty slots. */
+    char[][] table = new char[16][];
+
+    /** Number of words in the set. */
+    int size = 0;
+
+
+    public int size() {
+        return size;
+    }
+
+    /** Adds a word. Returns false if it was already in the set. */
+    public boolean add( CharSequence word ) {
+        if ( contains( word )) {
+            return false;
+        }
+        if ( 2*(size+1) > table.length ) {
+            rehash( 2*table.length );
+        }
+        char[] chars = new char[word.length()];
+        for ( int i=0; i<chars.length; i++ ) {
+            chars[i] = word.charAt( i );
+        }
+        table[slot( chars )] = chars;
+        size++;
+        return true;
+    }
+
+    public boolean contains( CharSequence word ) {
+        int mask = table.length - 1;
+        int i = hash( word ) & mask;
+        while ( table[i] != null ) {
+            if ( equals( table[i], word )) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /** Returns the first empty slot for a word that is not in the table. */
+    private int slot( char[] chars ) {
+        int mask = table.length - 1;
+        int i = hash( new CharSlice( chars, 0, chars.length )) & mask;
+        while ( table[i] != null ) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void rehash( int capacity ) {
+        char[][] old = table;
+        table = new char[capacity][];
+        for ( char[] chars : old ) {
+            if ( chars != null ) {
+                table[slot( chars )] = chars;
+            }
+        }
+    }
+
+    private static int hash( CharSequence s ) {
+        int h = 0;
+        for ( int i=0; i<s.length(); i++ ) {
+            h = 31*h + s.charAt( i );
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equals( char[] chars, CharSequence s ) {
+        if ( chars.length != s.length() ) {
+            return false;
+        }
+        for ( int i=0; i<chars.length; i++ ) {
+            if ( chars[i] != s.charAt( i )) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
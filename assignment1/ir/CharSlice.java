@@ -0,0 +1,82 @@
+package ir;
+
+/**
+ *  A reusable view of a range of a char array. It lets the tokenizer hand
+ *  out tokens, and run regular expressions on them, without creating a new
+ *  String for every token.
+ */
+public class CharSlice implements CharSequence {
+
+    char[] chars;
+    int offset;
+    int length;
+
+    /** The hash code, if it is known. */
+    int hash;
+    boolean hash_known = false;
+
+    public CharSlice() {}
+
+    public CharSlice( char[] chars, int offset, int length ) {
+        set( chars, offset, length );
+    }
+
+    /** Points the view at another range. */
+    public CharSlice set( char[] chars, int offset, int length ) {
+        this.chars = chars;
+        this.offset = offset;
+        this.length = length;
+        hash_known = false;
+        return this;
+    }
+
+    /** Shortens (or lengthens) the view, e.g. when a suffix is stripped. */
+    public void setLength( int length ) {
+        this.length = length;
+        hash_known = false;
+    }
+
+    /** Sets the hash code, when it has already been computed by whoever filled the view. */
+    void setHash( int hash ) {
+        this.hash = hash;
+        hash_known = true;
+    }
+
+    /**
+     *  Returns the same hash code as the String with these contents would.
+     *  The chars must not be changed in place after the hash code has been
+     *  computed, unless the view is set again.
+     */
+    public int hashCode() {
+        if ( !hash_known ) {
+            setHash( hash( chars, offset, length ));
+        }
+        return hash;
+    }
+
+    /** The String hash code of <code>chars[offset..offset+length)</code>. */
+    static int hash( char[] chars, int offset, int length ) {
+        int h = 0;
+        for ( int i=offset; i<offset+length; i++ ) {
+            h = 31*h + chars[i];
+        }
+        return h;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public char charAt( int i ) {
+        return chars[offset + i];
+    }
+
+    public CharSequence subSequence( int start, int end ) {
+        return new CharSlice( chars, offset + start, end - start );
+    }
+
+    /** Returns the contents as a new String. */
+    public String toString() {
+        return new String( chars, offset, length );
+    }
+}
@@ -0,0 +1,234 @@
+package ir;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ *  The per-document information of a persistent index (name, length,
+ *  euclidean length and pagerank) in one binary file, ordered by docID.
+ *
+ *  Each kind of value is stored as a column of fixed-size entries, so the
+ *  value of a document is found at <code>(docID - base) * size</code> in
+ *  its column and nothing has to be parsed. The base is the smallest docID
+ *  in the store, so a store of the documents of one segment only has slots
+ *  for the docIDs of that segment. The file is memory-mapped when it is
+ *  opened, so opening it takes the same time whatever the number of
+ *  documents; pages are read when they are first used.
+ *
+ *  File layout:
+ *    header:  magic, version, number of docID slots (n), number of
+ *             documents, flags, base (since version 2, 0 before)
+ *    lengths: n ints, -1 where there is no document
+ *    norms:   n doubles, NaN if not known
+ *    ranks:   n doubles, NaN if not known
+ *    names:   n+1 longs giving where each name starts in the name bytes,
+ *             followed by the UTF-8 bytes of all names
+ */
+public class DocStore {
+
+    public static final int MAGIC = 0x444f4353;
+
+    public static final int VERSION = 2;
+
+    public static final int HEADER_SIZE = 24;
+
+    /** The file has euclidean lengths. */
+    public static final int HAS_NORMS = 1;
+
+    /** The file has pageranks. */
+    public static final int HAS_PAGERANK = 2;
+
+
+    /** The values of one document, when the store is written. */
+    public interface Source {
+        String name( int docID );
+        Integer length( int docID );
+        Double norm( int docID );
+        Double pageRank( int docID );
+    }
+
+
+    final MappedFile map;
+    final int n;
+    final int base;
+    final int numberOfDocs;
+    final int flags;
+    final long lengthsStart;
+    final long normsStart;
+    final long ranksStart;
+    final long offsetsStart;
+    final long namesStart;
+
+
+    /**
+     *  Opens and maps a doc store written by <code>write</code>.
+     */
+    public DocStore( String filename ) throws IOException {
+        try ( RandomAccessFile file = new RandomAccessFile( filename, "r" )) {
+            if ( file.length() < HEADER_SIZE || file.readInt() != MAGIC ) {
+                throw new IOException( "Not a doc store: " + filename );
+            }
+            file.readInt();   // version
+            n = file.readInt();
+            numberOfDocs = file.readInt();
+            flags = file.readInt();
+            base = file.readInt();
+            // The mapping stays valid when the file is closed
+            map = new MappedFile( file );
+        }
+        lengthsStart = HEADER_SIZE;
+        normsStart = lengthsStart + 4L * n;
+        ranksStart = normsStart + 8L * n;
+        offsetsStart = ranksStart + 8L * n;
+        namesStart = offsetsStart + 8L * ( n + 1 );
+    }
+
+
+    /** Number of documents in the store. */
+    public int size() {
+        return numberOfDocs;
+    }
+
+    /** One more than the largest docID. */
+    public int slots() {
+        return base + n;
+    }
+
+    /** The smallest docID there is a slot for. */
+    public int base() {
+        return base;
+    }
+
+    public boolean hasNorms() {
+        return ( flags & HAS_NORMS ) != 0;
+    }
+
+    public boolean hasPageRank() {
+        return ( flags & HAS_PAGERANK ) != 0;
+    }
+
+    public boolean contains( int docID ) {
+        return docID >= base && docID - base < n && map.getInt( lengthsStart + 4L * ( docID - base )) >= 0;
+    }
+
+    /** The length of a document, or null if there is no such document. */
+    public Integer length( int docID ) {
+        return contains( docID ) ? map.getInt( lengthsStart + 4L * ( docID - base )) : null;
+    }
+
+    /** The euclidean length of a document, or null if it is not known. */
+    public Double norm( int docID ) {
+        return getDouble( normsStart, docID );
+    }
+
+    /** The pagerank of a document, or null if it is not known. */
+    public Double pageRank( int docID ) {
+        return getDouble( ranksStart, docID );
+    }
+
+    /** The name of a document, or null if there is no such document. */
+    public String name( int docID ) {
+        if ( !contains( docID )) return null;
+        long start = map.getLong( offsetsStart + 8L * ( docID - base ));
+        long end = map.getLong( offsetsStart + 8L * ( docID - base + 1 ));
+        byte[] b = new byte[(int) ( end - start )];
+        map.get( namesStart + start, b );
+        return new String( b, StandardCharsets.UTF_8 );
+    }
+
+    /** The docIDs of all documents, in increasing order. */
+    public ArrayList<Integer> docIDs() {
+        ArrayList<Integer> ids = new ArrayList<>( numberOfDocs );
+        for ( int docID=base; docID-base<n; docID++ ) {
+            if ( contains( docID )) ids.add( docID );
+        }
+        return ids;
+    }
+
+    private Double getDouble( long start, int docID ) {
+        if ( docID < base || docID - base >= n ) return null;
+        double d = Double.longBitsToDouble( map.getLong( start + 8L * ( docID - base )));
+        return Double.isNaN( d ) ? null : d;
+    }
+
+
+    // ==================================================================
+
+
+    /**
+     *  Writes a doc store for the documents <code>docIDs</code>. The file is
+     *  written next to <code>filename</code> and then moved in place, so a
+     *  store that is mapped at the time stays readable.
+     */
+    public static void write( String filename, Iterable<Integer> docIDs, Source source ) throws IOException {
+        int base = Integer.MAX_VALUE;
+        int end = 0;
+        int numberOfDocs = 0;
+        for ( int docID : docIDs ) {
+            base = Math.min( base, docID );
+            end = Math.max( end, docID + 1 );
+            numberOfDocs++;
+        }
+        if ( numberOfDocs == 0 ) {
+            base = 0;
+        }
+        int n = end - base;
+        int[] lengths = new int[n];
+        double[] norms = new double[n];
+        double[] ranks = new double[n];
+        byte[][] names = new byte[n][];
+        Arrays.fill( lengths, -1 );
+        Arrays.fill( norms, Double.NaN );
+        Arrays.fill( ranks, Double.NaN );
+        int flags = 0;
+        for ( int docID : docIDs ) {
+            Integer length = source.length( docID );
+            int i = docID - base;
+            lengths[i] = length == null ? 0 : length;
+            Double norm = source.norm( docID );
+            if ( norm != null ) {
+                norms[i] = norm;
+                flags |= HAS_NORMS;
+            }
+            Double rank = source.pageRank( docID );
+            if ( rank != null ) {
+                ranks[i] = rank;
+                flags |= HAS_PAGERANK;
+            }
+            String name = source.name( docID );
+            names[i] = ( name == null ? "" : name ).getBytes( StandardCharsets.UTF_8 );
+        }
+
+        String tmp = filename + ".tmp";
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ), 1 << 16 ));
+        out.writeInt( MAGIC );
+        out.writeInt( VERSION );
+        out.writeInt( n );
+        out.writeInt( numberOfDocs );
+        out.writeInt( flags );
+        out.writeInt( base );
+        for ( int length : lengths ) out.writeInt( length );
+        for ( double norm : norms ) out.writeDouble( norm );
+        for ( double rank : ranks ) out.writeDouble( rank );
+        long offset = 0;
+        for ( int i=0; i<n; i++ ) {
+            out.writeLong( offset );
+            if ( names[i] != null ) offset += names[i].length;
+        }
+        out.writeLong( offset );
+        for ( byte[] name : names ) {
+            if ( name != null ) out.write( name );
+        }
+        out.close();
+        Files.move( Paths.get( tmp ), Paths.get( filename ), StandardCopyOption.REPLACE_EXISTING );
+    }
+}
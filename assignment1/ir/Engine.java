@@ -10,7 +10,8 @@ package ir;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.swing.SwingUtilities;
 
 /**
  *  This is the main class for the search engine.
@@ -20,7 +21,11 @@ public class Engine {
     /** The inverted index. */
     Index index = new HashedIndex();
     //Index index = new PersistentHashedIndex();
+    //Index index = new PersistentHashedIndex(true);
     //Index index = new PersistentScalableHashedIndex();
+    //Index index = new PersistentScalableHashedIndex(InversionType.SORT_BASED);
+    //Index index = new PersistentScalableHashedIndex(InversionType.OFF_HEAP);
+    //Index index = new SegmentedIndex();
 
     /** The indexer creating the search index. */
     Indexer indexer;
@@ -43,12 +48,55 @@ public class Engine {
     /** Directories that should be indexed. */
     ArrayList<String> dirNames = new ArrayList<String>();
 
-    /** Lock to prevent simultaneous access to the index. */
-    Object indexLock = new Object();
+    /**
+     *  Lock to prevent searching while the index is being built. Searches
+     *  only take the read lock, so they can run at the same time.
+     */
+    ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
 
     /** The patterns matching non-standard words (e-mail addresses, etc.) */
     String patterns_file = null;
 
+    /** Tokenizes documents and relevance feedback, with the patterns compiled once. */
+    Analyzer analyzer;
+
+    /** The file containing the stop words, or null if stop words are kept. */
+    String stopwords_file = null;
+
+    /** Should plurals be stemmed to their singular forms? */
+    boolean stemming = false;
+
+    /** Tokens shorter or longer than this are not indexed. */
+    int min_length = 0;
+    int max_length = Integer.MAX_VALUE;
+
+    /** Files larger than this many megabytes are tokenized on several threads. */
+    long parallel_threshold_mb = 64;
+
+    /** Should the scalable index write its dictionary as a minimal perfect hash? */
+    boolean perfect_hash = false;
+
+    /** Should the scalable index write its runs on a background thread? */
+    boolean background_flush = false;
+
+    /** Megabytes of postings the persistent indexes cache, or 0 for no cache. */
+    long postings_cache_mb = 64;
+
+    /** The postings cache of a persistent index, or null. */
+    PostingsCache postingsCache;
+
+    /** The file in which the searched terms are counted. */
+    String query_log_file = "./querylog.txt";
+
+    /** Number of most searched terms looked up when a persistent index is opened. */
+    int warm_up_terms = 1000;
+
+    /** Counts the searched terms. */
+    QueryLog queryLog;
+
+    /** True while the most searched terms are looked up in the background. */
+    volatile boolean warmingUp = false;
+
     /** The file containing the logo. */
     String pic_file = "";
 
@@ -69,19 +117,43 @@ public class Engine {
      */
     public Engine( String[] args ) {
         decodeArgs( args );
-        indexer = new Indexer( index, kgIndex, patterns_file );
+        analyzer = createAnalyzer();
+        if ( perfect_hash && index instanceof PersistentScalableHashedIndex ) {
+            ((PersistentScalableHashedIndex) index).perfectHash = true;
+        }
+        if ( background_flush && index instanceof PersistentScalableHashedIndex ) {
+            ((PersistentScalableHashedIndex) index).backgroundFlush = true;
+        }
+        if ( is_indexing && index instanceof SegmentedIndex ) {
+            // The documents are indexed anew, not added to the last commit
+            ((SegmentedIndex) index).clear();
+        }
+        if ( postings_cache_mb > 0 && index instanceof PersistentHashedIndex ) {
+            postingsCache = new PostingsCache( postings_cache_mb << 20 );
+            ((PersistentHashedIndex) index).cache = postingsCache;
+        }
+        queryLog = new QueryLog( query_log_file );
+        Runtime.getRuntime().addShutdownHook( new Thread( () -> {
+            queryLog.save();
+            if ( postingsCache != null ) {
+                System.err.println( postingsCache );
+            }
+        }));
+        indexer = new Indexer( index, kgIndex, analyzer );
+        indexer.parallel_threshold = parallel_threshold_mb << 20;
         searcher = new Searcher( index, kgIndex, hitsRanker );
         speller = new SpellChecker(index, kgIndex);
         gui = new SearchGUI( this );
         gui.init();
         /* 
          *   Calls the indexer to index the chosen directory structure.
-         *   Access to the index is synchronized since we don't want to 
-         *   search at the same time we're indexing new files (this might 
-         *   corrupt the index).
+         *   The index is write-locked since we don't want to search at
+         *   the same time we're indexing new files (this might corrupt
+         *   the index).
          */
         if (is_indexing) {
-            synchronized ( indexLock ) {
+            indexLock.writeLock().lock();
+            try {
                 gui.displayInfoText( "Indexing, please wait..." );
                 long startTime = System.currentTimeMillis();
                 for ( int i=0; i<dirNames.size(); i++ ) {
@@ -95,6 +167,8 @@ public class Engine {
                 index.cleanup();
                 long elapsedTime = System.currentTimeMillis() - startTime;
                 gui.displayInfoText( String.format( "Indexing done in %.1f seconds.", elapsedTime/1000.0 ));
+            } finally {
+                indexLock.writeLock().unlock();
             }
         } else {
             long startTime = System.currentTimeMillis();
@@ -103,10 +177,70 @@ public class Engine {
             gui.displayInfoText( String.format( "Indexing done in %.1f seconds.", elapsedTime/1000.0 ));
             //gui.displayInfoText( "Index is loaded from disk" );
         }
+        startWarmUp();
         calculatePagerank();
     }
 
+    /**
+     *  Starts looking up the most searched terms of earlier runs in the
+     *  background, so that their pages and postings are in memory when the
+     *  first searches come. The search box is disabled until the warm-up is
+     *  done, so that no search is served from a cold index. An index kept in
+     *  memory needs no warm-up.
+     */
+    private void startWarmUp() {
+        if ( warm_up_terms <= 0 || queryLog.size() == 0
+             || !( index instanceof PersistentHashedIndex || index instanceof SegmentedIndex )) {
+            return;
+        }
+        warmingUp = true;
+        SwingUtilities.invokeLater( () -> {
+            gui.queryWindow.setEnabled( false );
+            gui.displayInfoText( "Warming up the index, please wait..." );
+        });
+        Thread warmer = new Thread( () -> {
+            long startTime = System.currentTimeMillis();
+            String info = "Warm-up failed.";
+            indexLock.readLock().lock();
+            try {
+                int found = queryLog.warmUp( index, warm_up_terms, Searcher.fetcher );
+                long elapsedTime = System.currentTimeMillis() - startTime;
+                info = String.format( "Warmed up %d terms in %.1f seconds.", found, elapsedTime/1000.0 );
+            } finally {
+                indexLock.readLock().unlock();
+                final String text = info;
+                SwingUtilities.invokeLater( () -> {
+                    warmingUp = false;
+                    gui.queryWindow.setEnabled( true );
+                    gui.displayInfoText( text );
+                });
+            }
+        }, "warm-up" );
+        warmer.setDaemon( true );
+        warmer.start();
+    }
+
+    /**
+     *  Creates the analyzer, with the token filters given on the command line.
+     */
+    private Analyzer createAnalyzer() {
+        Analyzer a = new Analyzer( true, false, true, patterns_file );
+        if ( min_length > 0 || max_length < Integer.MAX_VALUE ) {
+            a.addFilter( new LengthFilter( min_length, max_length ));
+        }
+        if ( stopwords_file != null ) {
+            a.addFilter( StopFilter.read( stopwords_file ));
+        }
+        if ( stemming ) {
+            a.addFilter( new SStemFilter() );
+        }
+        return a;
+    }
+
     private void calculatePagerank() {
+        if (index.hasStoredPageRank()) {
+            return;
+        }
         File file = new File(rank_file);
         if (file.exists()) {
             readPageRank();
@@ -116,6 +250,8 @@ public class Engine {
             pageRank.writePageRank(reverseDocNames(),rank_file);
             readPageRank();
         }
+        // Lets the index keep the pageranks for the next start
+        index.storePageRank();
     }
 
 
@@ -136,9 +272,9 @@ public class Engine {
 
     public HashMap<String, Integer> reverseDocNames() {
         HashMap<String, Integer> answer = new HashMap<>();
-        for(Map.Entry<Integer, String> entry : index.docNames.entrySet()) {
-            String name = entry.getValue();
-            answer.put(name.split("\\\\")[2], entry.getKey());
+        for(int docID : index.docIDs()) {
+            String name = index.docName(docID);
+            answer.put(name.split("\\\\")[2], docID);
         }
         return answer;
     }
@@ -176,6 +312,50 @@ public class Engine {
             } else if ( "-ni".equals( args[i] )) {
                 i++;
                 is_indexing = false;
+            } else if ( "-sw".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    stopwords_file = args[i++];
+                }
+            } else if ( "-stem".equals( args[i] )) {
+                i++;
+                stemming = true;
+            } else if ( "-minlen".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    min_length = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-maxlen".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    max_length = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-pt".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    parallel_threshold_mb = Long.parseLong( args[i++] );
+                }
+            } else if ( "-cache".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    postings_cache_mb = Long.parseLong( args[i++] );
+                }
+            } else if ( "-ql".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    query_log_file = args[i++];
+                }
+            } else if ( "-warm".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    warm_up_terms = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-mph".equals( args[i] )) {
+                i++;
+                perfect_hash = true;
+            } else if ( "-bgflush".equals( args[i] )) {
+                i++;
+                background_flush = true;
             } else {
                 System.err.println( "Unknown option: " + args[i] );
                 break;
@@ -283,7 +283,7 @@ public class HITSRanker {
         HashMap<Integer, Integer> IDtoInternalID = new HashMap<>();
         for (int i = 0; i < post.size(); ++i) {
             int goodID = post.get(i).docID;
-            String name = index.docNames.get(goodID);
+            String name = index.docName(goodID);
             name = name.split("\\\\davisWiki\\\\")[1];
 
             Integer linkFile = titleToId.get(name);
@@ -328,9 +328,9 @@ public class HITSRanker {
 
     public void reverseDocNames() {
         nameToRealID = new HashMap<>();
-        for(Map.Entry<Integer, String> entry : index.docNames.entrySet()) {
-            String name = entry.getValue();
-            nameToRealID.put(name.split("\\\\")[2], entry.getKey());
+        for(int docID : index.docIDs()) {
+            String name = index.docName(docID);
+            nameToRealID.put(name.split("\\\\")[2], docID);
         }
     }
 
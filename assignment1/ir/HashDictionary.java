@@ -0,0 +1,278 @@
+package ir;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ *  An on-disk hash table from terms to the records of their postings.
+ *
+ *  The table is sized from the number of terms, so that it is at most
+ *  <code>LOAD_FACTOR</code> full. The slot of a term is picked by a 64-bit
+ *  hash of its UTF-8 bytes (FNV-1a with the murmur3 finalizer); the low 32
+ *  bits of the same hash are kept in the slot as a fingerprint, so that
+ *  probes past other terms do not have to read their records.
+ *
+ *  The table is built in memory with Robin Hood linear probing: an entry
+ *  that is further from its home slot than the one occupying a slot takes
+ *  that slot over, and the other entry moves on. This keeps all entries
+ *  close to their home slot, and the largest displacement is stored in the
+ *  header, so a lookup never probes more than that many slots past home.
+ *
+ *  Since version 2 each slot also holds the statistics of its term (see
+ *  TermStats), so that they can be looked up without reading the record.
+ *
+ *  File layout:
+ *    header: magic, version, table size, number of terms, largest
+ *            displacement, slot size
+ *    slots:  pointer to the record (long), record size (int, 0 for an
+ *            empty slot), fingerprint (int), and since version 2: document
+ *            frequency (int), largest term frequency (int), collection
+ *            frequency (long)
+ */
+public class HashDictionary {
+
+    public static final int MAGIC = 0x48444943;
+
+    public static final int VERSION = 2;
+
+    public static final int HEADER_SIZE = 32;
+
+    public static final int SLOT_SIZE = 32;
+
+    /** An empty slot, as it is written to the file. */
+    private static final byte[] EMPTY_SLOT = new byte[SLOT_SIZE];
+
+    /** The table is made large enough to be at most this full. */
+    public static final double LOAD_FACTOR = 0.7;
+
+    /** A dictionary slot. */
+    public static class Slot {
+        public long ptr;
+        public int size;
+        public TermStats stats;
+    }
+
+    /** Tells if the record at a pointer is the one for the term looked up. */
+    public interface RecordCheck {
+        boolean isTerm( long ptr, int size );
+    }
+
+
+    ChannelReader reader;
+    MappedFile map;
+    long tableSize;
+    long numberOfTerms;
+    int maxDisplacement;
+    int slotSize;
+
+
+    /**
+     *  Opens a dictionary written by a <code>Builder</code>.
+     *
+     *  @param memoryMapped If true, the slots are read through a memory map.
+     */
+    public HashDictionary( RandomAccessFile file, boolean memoryMapped ) throws IOException {
+        reader = new ChannelReader( file );
+        file.seek( 0 );
+        if ( file.length() < HEADER_SIZE || file.readInt() != MAGIC ) {
+            throw new IOException( "Not a hash dictionary" );
+        }
+        file.readInt();   // version
+        tableSize = file.readLong();
+        numberOfTerms = file.readLong();
+        maxDisplacement = file.readInt();
+        slotSize = file.readInt();
+        if ( memoryMapped ) {
+            map = new MappedFile( file );
+        }
+    }
+
+
+    /**
+     *  Returns true if the file starts like a dictionary in this format.
+     */
+    public static boolean isHashDictionary( RandomAccessFile file ) {
+        try {
+            if ( file.length() < HEADER_SIZE ) return false;
+            file.seek( 0 );
+            return file.readInt() == MAGIC;
+        } catch ( IOException e ) {
+            return false;
+        }
+    }
+
+
+    public long size() {
+        return numberOfTerms;
+    }
+
+    /** Do the slots hold the statistics of their terms? */
+    public boolean hasStats() {
+        return slotSize >= SLOT_SIZE;
+    }
+
+
+    /**
+     *  Looks up a term. Every slot on the way with the term's fingerprint is
+     *  handed to <code>check</code>, which reads the record to see if it is
+     *  really the term.
+     *
+     *  @return the slot of the term, or <code>null</code> if it is not there.
+     */
+    public Slot lookup( byte[] term, RecordCheck check ) {
+        if ( tableSize == 0 ) return null;
+        long h = hash( term );
+        int fingerprint = (int) h;
+        long pos = home( h, tableSize );
+        Slot slot = new Slot();
+        byte[] s = new byte[slotSize];
+        try {
+            for ( int d=0; d<=maxDisplacement; d++ ) {
+                long offset = HEADER_SIZE + pos * slotSize;
+                if ( map != null ) {
+                    map.get( offset, s );
+                } else {
+                    reader.read( offset, s );
+                }
+                ByteBuffer b = ByteBuffer.wrap( s );
+                slot.ptr = b.getLong();
+                slot.size = b.getInt();
+                int slotFingerprint = b.getInt();
+                if ( slot.size == 0 ) {
+                    return null;
+                }
+                if ( slotFingerprint == fingerprint && check.isTerm( slot.ptr, slot.size )) {
+                    if ( hasStats() ) {
+                        int df = b.getInt();
+                        int maxTf = b.getInt();
+                        slot.stats = new TermStats( df, b.getLong(), maxTf );
+                    }
+                    return slot;
+                }
+                pos = ( pos + 1 == tableSize ) ? 0 : pos + 1;
+            }
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+
+    /** The 64-bit hash of a term's UTF-8 bytes. */
+    public static long hash( byte[] term ) {
+        long h = 0xcbf29ce484222325L;
+        for ( byte b : term ) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        // murmur3 fmix64, so that all bits depend on all bytes
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /** The home slot of a hash, from its high 32 bits. */
+    static long home( long h, long tableSize ) {
+        return (( h >>> 32 ) * tableSize ) >>> 32;
+    }
+
+
+    // ==================================================================
+
+
+    /**
+     *  Collects the terms and writes the table once all are known.
+     */
+    public static class Builder {
+
+        long[] hashes = new long[1024];
+        long[] ptrs = new long[1024];
+        int[] sizes = new int[1024];
+        TermStats[] stats = new TermStats[1024];
+        int n = 0;
+
+        /** Adds a term and the pointer and size (&gt; 0) of its record. */
+        public void add( byte[] term, long ptr, int size ) {
+            add( term, ptr, size, null );
+        }
+
+        /** Adds a term, the pointer and size (&gt; 0) of its record, and its statistics. */
+        public void add( byte[] term, long ptr, int size, TermStats termStats ) {
+            if ( n == hashes.length ) {
+                hashes = Arrays.copyOf( hashes, 2*n );
+                ptrs = Arrays.copyOf( ptrs, 2*n );
+                sizes = Arrays.copyOf( sizes, 2*n );
+                stats = Arrays.copyOf( stats, 2*n );
+            }
+            hashes[n] = hash( term );
+            ptrs[n] = ptr;
+            sizes[n] = size;
+            stats[n] = termStats;
+            n++;
+        }
+
+        /**
+         *  Builds the table and writes it to <code>filename</code>.
+         *
+         *  @return the largest displacement of an entry from its home slot.
+         */
+        public int write( String filename ) throws IOException {
+            int tableSize = (int) Math.max( 16, Math.ceil( n / LOAD_FACTOR ));
+            // The entry in each slot, or -1
+            int[] slots = new int[tableSize];
+            Arrays.fill( slots, -1 );
+            int maxDisplacement = 0;
+            for ( int i=0; i<n; i++ ) {
+                int e = i;
+                int pos = (int) home( hashes[e], tableSize );
+                int d = 0;
+                while ( slots[pos] != -1 ) {
+                    int residentHome = (int) home( hashes[slots[pos]], tableSize );
+                    int residentD = pos >= residentHome ? pos - residentHome : pos + tableSize - residentHome;
+                    if ( residentD < d ) {
+                        // Robin Hood: the entry further from home gets the slot
+                        int t = slots[pos]; slots[pos] = e; e = t;
+                        maxDisplacement = Math.max( maxDisplacement, d );
+                        d = residentD;
+                    }
+                    pos = ( pos + 1 == tableSize ) ? 0 : pos + 1;
+                    d++;
+                }
+                slots[pos] = e;
+                maxDisplacement = Math.max( maxDisplacement, d );
+            }
+
+            DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( filename ), 1 << 16 ));
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeLong( tableSize );
+            out.writeLong( n );
+            out.writeInt( maxDisplacement );
+            out.writeInt( SLOT_SIZE );
+            for ( int pos=0; pos<tableSize; pos++ ) {
+                int e = slots[pos];
+                if ( e == -1 ) {
+                    out.write( EMPTY_SLOT );
+                    continue;
+                }
+                TermStats termStats = stats[e];
+                out.writeLong( ptrs[e] );
+                out.writeInt( sizes[e] );
+                out.writeInt( (int) hashes[e] );
+                out.writeInt( termStats == null ? 0 : termStats.df );
+                out.writeInt( termStats == null ? 0 : termStats.maxTf );
+                out.writeLong( termStats == null ? 0 : termStats.cf );
+            }
+            out.close();
+            return maxDisplacement;
+        }
+    }
+}
@@ -15,6 +15,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 
 /**
@@ -26,6 +28,9 @@ public class HashedIndex implements Index {
     /** The index as a hashtable. */
     private HashMap<String,PostingsList> index = new HashMap<String,PostingsList>();
 
+    /** The postings lists by term ID, for the terms inserted by term ID. */
+    private ArrayList<PostingsList> byTermID = new ArrayList<PostingsList>();
+
 
     /**
      *  Inserts this token in the hashtable.
@@ -41,6 +46,23 @@ public class HashedIndex implements Index {
         }
     }
 
+    /**
+     *  Inserts a token by term ID, which avoids hashing the term again.
+     */
+    public void insert( int termID, String term, int docID, int offset ) {
+        PostingsList postingsList = termID < byTermID.size() ? byTermID.get(termID) : null;
+        if (postingsList == null) {
+            postingsList = index.get(term);
+            if (postingsList == null) {
+                postingsList = new PostingsList();
+                index.put(term, postingsList);
+            }
+            while (byTermID.size() <= termID) byTermID.add(null);
+            byTermID.set(termID, postingsList);
+        }
+        postingsList.addEntry(docID, offset);
+    }
+
     public void computeEuclideanLength() {
         int N = docNames.size();
         for (Map.Entry<String, PostingsList> entry : index.entrySet()) {
@@ -85,6 +107,14 @@ public class HashedIndex implements Index {
     }
 
 
+    /**
+     *  The postings are in memory, so there is nothing to wait for.
+     */
+    public CompletableFuture<PostingsList> getPostingsAsync( String token, Executor executor ) {
+        return CompletableFuture.completedFuture( getPostings( token ));
+    }
+
+
     /**
      *  No need for cleanup in a HashedIndex.
      */
@@ -10,6 +10,9 @@ package ir;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  *  Defines some common data structures and methods that all types of
@@ -32,9 +35,90 @@ public interface Index {
     /** Inserts a token into the index. */
     public void insert( String token, int docID, int offset );
 
+    /**
+     *  Inserts a token that the indexer has already resolved to a term ID.
+     *  Term IDs are consecutive, starting from 0, and <code>term</code> is
+     *  the same String object every time the same term ID is inserted.
+     *  Indexes that can make use of the ID override this.
+     */
+    public default void insert( int termID, String term, int docID, int offset ) {
+        insert( term, docID, offset );
+    }
+
     /** Returns the postings for a given term. */
     public PostingsList getPostings( String token );
 
+    /**
+     *  Starts looking up the postings for a term on <code>executor</code>, so
+     *  that the lookups of several terms can wait for the disk at the same
+     *  time. Indexes kept in memory override this to answer at once.
+     */
+    public default CompletableFuture<PostingsList> getPostingsAsync( String token, Executor executor ) {
+        return CompletableFuture.supplyAsync( () -> getPostings( token ), executor );
+    }
+
+    /**
+     *  Returns the statistics of a term, or <code>null</code> if the term is
+     *  not in the index. Indexes that store the statistics in their
+     *  dictionary override this so that the postings need not be read.
+     */
+    public default TermStats termStats( String token ) {
+        return TermStats.of( getPostings( token ));
+    }
+
+    /**
+     *  Returns the terms in the index that start with <code>prefix</code>, or
+     *  <code>null</code> if the index cannot list its terms by prefix.
+     */
+    public default List<String> prefixTerms( String prefix ) {
+        return null;
+    }
+
+    /** Number of documents in the index. */
+    public default int numberOfDocs() {
+        return docNames.size();
+    }
+
+    /** The docIDs of the documents in the index. */
+    public default Iterable<Integer> docIDs() {
+        return docNames.keySet();
+    }
+
+    /** The name of a document, or null if there is no such document. */
+    public default String docName( int docID ) {
+        return docNames.get( docID );
+    }
+
+    /** The length (in tokens) of a document, or null if there is no such document. */
+    public default Integer docLength( int docID ) {
+        return docLengths.get( docID );
+    }
+
+    /** The euclidean length of a document, or null if it is not known. */
+    public default Double docNorm( int docID ) {
+        return euclideanLength.get( docID );
+    }
+
+    /** The pagerank of a document, 0 if it is not known. */
+    public default double docPageRank( int docID ) {
+        return pageRank.getOrDefault( docID, 0. );
+    }
+
+    /**
+     *  Returns true if the index has stored the pageranks itself, so that
+     *  they do not have to be read into <code>pageRank</code>.
+     */
+    public default boolean hasStoredPageRank() {
+        return false;
+    }
+
+    /**
+     *  Called once <code>pageRank</code> is filled in, so that an index that
+     *  stores the pageranks itself can do so.
+     */
+    public default void storePageRank() {
+    }
+
     public void computeEuclideanLength();
 
     /** This method is called on exit. */
@@ -26,8 +26,17 @@ public class Indexer {
     /** The next docID to be generated. */
     private int lastDocID = 0;
 
-    /** The patterns matching non-standard words (e-mail addresses, etc.) */
-    String patterns_file;
+    /** Tokenizes the documents. */
+    Analyzer analyzer;
+
+    /** The term IDs of the terms seen so far. */
+    TermDictionary dictionary = new TermDictionary();
+
+    /** Files larger than this many bytes are tokenized on several threads. */
+    long parallel_threshold = 64L << 20;
+
+    /** Tokenizes the large files, created when the first one is found. */
+    private ParallelTokenizer parallelTokenizer;
 
 
     /* ----------------------------------------------- */
@@ -35,9 +44,15 @@ public class Indexer {
 
     /** Constructor */
     public Indexer( Index index, KGramIndex kgIndex, String patterns_file ) {
+        this( index, kgIndex, new Analyzer( true, false, true, patterns_file ));
+    }
+
+
+    /** Constructor */
+    public Indexer( Index index, KGramIndex kgIndex, Analyzer analyzer ) {
         this.index = index;
         this.kgIndex = kgIndex;
-        this.patterns_file = patterns_file;
+        this.analyzer = analyzer;
     }
 
 
@@ -70,11 +85,24 @@ public class Indexer {
                     if ( docID%1000 == 0 ) System.err.println( "Indexed " + docID + " files" );
                     try {
                         Reader reader = new InputStreamReader( new FileInputStream(f), StandardCharsets.UTF_8 );
-                        Tokenizer tok = new Tokenizer( reader, true, false, true, patterns_file );
                         int offset = 0;
-                        while ( tok.hasMoreTokens() ) {
-                            String token = tok.nextToken();
-                            insertIntoIndex( docID, token, offset++ );
+                        int processors = Runtime.getRuntime().availableProcessors();
+                        if ( f.length() > parallel_threshold && processors > 1 ) {
+                            if ( parallelTokenizer == null ) {
+                                parallelTokenizer = new ParallelTokenizer( analyzer, processors );
+                            }
+                            offset = parallelTokenizer.tokenize( reader, ( token, off ) -> insertIntoIndex( docID, token, off ));
+                        } else {
+                            Tokenizer tok = analyzer.tokenizer( reader );
+                            while ( tok.hasMoreTokens() ) {
+                                CharSlice token = tok.nextTokenSlice();
+                                // Dropped tokens still take up a position, so that
+                                // the offsets of the remaining ones stay the same
+                                if ( analyzer.filter( token )) {
+                                    insertIntoIndex( docID, token, offset );
+                                }
+                                offset++;
+                            }
                         }
                         index.docNames.put( docID, f.getPath() );
                         index.docLengths.put( docID, offset );
@@ -99,5 +127,21 @@ public class Indexer {
         if (kgIndex != null)
             kgIndex.insert(token);
     }
+
+
+    /**
+     *  Indexes one token, straight from the tokenizer. The token is looked up
+     *  in the term dictionary and inserted by term ID; only a term that has
+     *  not been seen before becomes a new String, and only new terms go into
+     *  the k-gram index.
+     */
+    void insertIntoIndex( int docID, CharSlice token, int offset ) {
+        int terms = dictionary.size();
+        int termID = dictionary.add( token );
+        String term = dictionary.term( termID );
+        index.insert( termID, term, docID, offset );
+        if (kgIndex != null && termID == terms)
+            kgIndex.insert(term);
+    }
 }
 
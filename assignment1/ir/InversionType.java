@@ -0,0 +1,9 @@
+package ir;
+
+/**
+ *  The different ways the scalable index can invert the current batch
+ *  of documents before writing it to disk as a sorted run.
+ */
+public enum InversionType {
+    TREE_MAP, SORT_BASED, OFF_HEAP
+}
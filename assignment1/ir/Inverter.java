@@ -0,0 +1,34 @@
+package ir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ *  The in-memory batch of the scalable index when it is not kept in a
+ *  TreeMap. A batch collects occurrences until it is full and is then
+ *  written to disk as one run sorted by term.
+ */
+public interface Inverter {
+
+    /**
+     *  Adds one occurrence of a token.
+     *
+     *  @return <code>true</code> if the batch is full and should be written.
+     */
+    public boolean insert( String token, int docID, int offset );
+
+    /** Number of distinct terms in the batch. */
+    public int numberOfTerms();
+
+    /**
+     *  Writes the batch to the data file as a run sorted by term, in the same
+     *  format as <code>PersistentScalableHashedIndex.writeIndexToDatafile</code>.
+     *
+     *  @return The position after the last record written.
+     */
+    public long writeRun( RandomAccessFile dataFile ) throws IOException;
+
+    /** Empties the batch so that it can be reused. */
+    public void clear();
+
+}
@@ -0,0 +1,19 @@
+package ir;
+
+/**
+ *  Drops tokens that are shorter or longer than given limits.
+ */
+public class LengthFilter implements TokenFilter {
+
+    final int min_length;
+    final int max_length;
+
+    public LengthFilter( int min_length, int max_length ) {
+        this.min_length = min_length;
+        this.max_length = max_length;
+    }
+
+    public boolean accept( CharSlice token ) {
+        return token.length >= min_length && token.length <= max_length;
+    }
+}
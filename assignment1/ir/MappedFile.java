@@ -0,0 +1,81 @@
+package ir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ *  A file mapped read-only into memory, so that reading from it costs no
+ *  system calls once the pages are in the page cache.
+ *
+ *  A single MappedByteBuffer cannot be larger than 2 GB, so the file is
+ *  mapped in chunks of <code>CHUNK_SIZE</code> bytes. Values that straddle
+ *  two chunks are read byte by byte.
+ */
+public class MappedFile {
+
+    /** Size of the mapped chunks. */
+    static final long CHUNK_SIZE = 1L << 30;
+
+    final MappedByteBuffer[] chunks;
+    final long length;
+
+
+    public MappedFile( RandomAccessFile file ) throws IOException {
+        FileChannel channel = file.getChannel();
+        length = channel.size();
+        chunks = new MappedByteBuffer[(int) (( length + CHUNK_SIZE - 1 ) / CHUNK_SIZE )];
+        for ( int i=0; i<chunks.length; i++ ) {
+            long start = i * CHUNK_SIZE;
+            chunks[i] = channel.map( FileChannel.MapMode.READ_ONLY, start, Math.min( CHUNK_SIZE, length - start ));
+        }
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public long getLong( long pos ) {
+        int chunk = (int) ( pos / CHUNK_SIZE );
+        int offset = (int) ( pos % CHUNK_SIZE );
+        if ( offset + 8 <= CHUNK_SIZE ) {
+            return chunks[chunk].getLong( offset );
+        }
+        long n = 0;
+        for ( int i=0; i<8; i++ ) {
+            n = ( n << 8 ) | ( get( pos + i ) & 0xff );
+        }
+        return n;
+    }
+
+    public int getInt( long pos ) {
+        int chunk = (int) ( pos / CHUNK_SIZE );
+        int offset = (int) ( pos % CHUNK_SIZE );
+        if ( offset + 4 <= CHUNK_SIZE ) {
+            return chunks[chunk].getInt( offset );
+        }
+        int n = 0;
+        for ( int i=0; i<4; i++ ) {
+            n = ( n << 8 ) | ( get( pos + i ) & 0xff );
+        }
+        return n;
+    }
+
+    public byte get( long pos ) {
+        return chunks[(int) ( pos / CHUNK_SIZE )].get( (int) ( pos % CHUNK_SIZE ));
+    }
+
+    /** Copies <code>dst.length</code> bytes starting at <code>pos</code> into <code>dst</code>. */
+    public void get( long pos, byte[] dst ) {
+        int done = 0;
+        while ( done < dst.length ) {
+            int chunk = (int) ( pos / CHUNK_SIZE );
+            int offset = (int) ( pos % CHUNK_SIZE );
+            int n = (int) Math.min( dst.length - done, CHUNK_SIZE - offset );
+            chunks[chunk].get( offset, dst, done, n );
+            done += n;
+            pos += n;
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package ir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ *   Keeps the postings of a batch of the scalable index outside the Java
+ *   heap, so that the garbage collector does not have to trace them.
+ *
+ *   The postings of every term are appended, already in the textual run
+ *   format ("docID:off,off-docID:off"), to a chain of byte slices in direct
+ *   ByteBuffers. A term starts with a small slice, and every time a slice is
+ *   full a larger one is allocated and its address is stored in the last four
+ *   bytes of the old slice. When the run is written the slices are copied
+ *   straight to the data file without being decoded.
+ *
+ *   Only the terms and a few ints per term are kept on the heap.
+ */
+public class OffHeapInverter implements Inverter {
+
+    /** Size of one off-heap block. Slices never cross a block boundary. */
+    public static final int BLOCK_SIZE = 1 << 20;
+
+    /** Largest number of blocks whose addresses all fit in an int. */
+    public static final int MAX_BLOCKS = Integer.MAX_VALUE / BLOCK_SIZE;
+
+    /** Default number of blocks the batch may use before it is written. */
+    public static final int DEFAULT_MAX_BLOCKS = 128;
+
+    /** Size of the slices at each level. The last level is reused once it is reached. */
+    static final int[] LEVEL_SIZE = { 16, 32, 64, 128, 256, 512, 1024, 2048, 4096, 8192, 16384, 32768 };
+
+    /** Size of the buffer used when copying slices to the data file. */
+    static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    /** Mapping from the terms of this batch to their term IDs. */
+    HashMap<String,Integer> termIDs = new HashMap<>();
+
+    /** Mapping from term IDs to the terms of this batch. */
+    ArrayList<String> terms = new ArrayList<>();
+
+    /** Address of the first slice of each term. */
+    int[] head = new int[1024];
+
+    /** Address where the next byte of each term is written. */
+    int[] tail = new int[1024];
+
+    /** Address of the end of the current slice of each term. */
+    int[] sliceEnd = new int[1024];
+
+    /** Level of the current slice of each term. */
+    byte[] level = new byte[1024];
+
+    /** Number of postings bytes written for each term. */
+    int[] length = new int[1024];
+
+    /** Last docID inserted for each term. */
+    int[] lastDocID = new int[1024];
+
+    /** The off-heap blocks. They are kept when the batch is cleared. */
+    ByteBuffer[] blocks;
+
+    /** The block slices are currently allocated from. */
+    int currentBlock = -1;
+
+    /** Position of the first free byte in the current block. */
+    int blockOffset = BLOCK_SIZE;
+
+    /** The batch is full once the last of these blocks is taken into use. */
+    int maxBlocks;
+
+    /** Scratch space for the digits of a number. */
+    private byte[] digits = new byte[11];
+
+    /** Buffer used when writing the run, allocated on the first write. */
+    private ByteBuffer writeBuffer;
+
+
+    public OffHeapInverter() {
+        this(DEFAULT_MAX_BLOCKS);
+    }
+
+    /**
+     *  @param maxBlocks Number of blocks of <code>BLOCK_SIZE</code> bytes the
+     *         batch may use. The last block is kept in reserve, so at least two
+     *         are needed. Slices are addressed by an int, so at most
+     *         <code>MAX_BLOCKS</code> are used.
+     */
+    public OffHeapInverter(int maxBlocks) {
+        this.maxBlocks = Math.min(MAX_BLOCKS, Math.max(2, maxBlocks));
+        blocks = new ByteBuffer[this.maxBlocks];
+    }
+
+
+    public boolean insert(String token, int docID, int offset) {
+        Integer termID = termIDs.get(token);
+        int t;
+        if (termID == null) {
+            t = terms.size();
+            terms.add(token);
+            termIDs.put(token, t);
+            ensureCapacity(t + 1);
+            int slice = allocateSlice(0);
+            head[t] = slice;
+            tail[t] = slice;
+            sliceEnd[t] = slice + LEVEL_SIZE[0];
+            level[t] = 0;
+            length[t] = 0;
+            lastDocID[t] = -1;
+        } else {
+            t = termID;
+        }
+
+        if (lastDocID[t] != docID) {
+            if (lastDocID[t] != -1) writeByte(t, (byte) '-');
+            writeNumber(t, docID);
+            writeByte(t, (byte) ':');
+            lastDocID[t] = docID;
+        } else {
+            writeByte(t, (byte) ',');
+        }
+        writeNumber(t, offset);
+
+        // The last block is a reserve, so that the insert that takes it
+        // into use always has room to finish.
+        return currentBlock >= maxBlocks - 1;
+    }
+
+    public int numberOfTerms() {
+        return terms.size();
+    }
+
+    private void ensureCapacity(int n) {
+        if (n <= head.length) return;
+        int size = Math.max(n, 2 * head.length);
+        head = Arrays.copyOf(head, size);
+        tail = Arrays.copyOf(tail, size);
+        sliceEnd = Arrays.copyOf(sliceEnd, size);
+        level = Arrays.copyOf(level, size);
+        length = Arrays.copyOf(length, size);
+        lastDocID = Arrays.copyOf(lastDocID, size);
+    }
+
+    /**
+     *  Allocates a slice of the given level and returns its address.
+     */
+    private int allocateSlice(int lvl) {
+        int size = LEVEL_SIZE[lvl];
+        if (blockOffset + size > BLOCK_SIZE) {
+            ++currentBlock;
+            if (currentBlock == blocks.length) {
+                blocks = Arrays.copyOf(blocks, 2 * blocks.length);
+            }
+            if (blocks[currentBlock] == null) {
+                blocks[currentBlock] = ByteBuffer.allocateDirect(BLOCK_SIZE);
+            }
+            blockOffset = 0;
+        }
+        int address = currentBlock * BLOCK_SIZE + blockOffset;
+        blockOffset += size;
+        return address;
+    }
+
+    private ByteBuffer block(int address) {
+        return blocks[address / BLOCK_SIZE];
+    }
+
+    /**
+     *  Appends one byte to the postings of term <code>t</code>, moving on to a
+     *  new slice if the current one is full.
+     */
+    private void writeByte(int t, byte b) {
+        int address = tail[t];
+        if (address == sliceEnd[t] - 4) {
+            int lvl = Math.min(level[t] + 1, LEVEL_SIZE.length - 1);
+            int next = allocateSlice(lvl);
+            block(address).putInt(address % BLOCK_SIZE, next);
+            level[t] = (byte) lvl;
+            sliceEnd[t] = next + LEVEL_SIZE[lvl];
+            address = next;
+        }
+        block(address).put(address % BLOCK_SIZE, b);
+        tail[t] = address + 1;
+        length[t]++;
+    }
+
+    /**
+     *  Appends the decimal digits of a non-negative number.
+     */
+    private void writeNumber(int t, int n) {
+        int i = digits.length;
+        do {
+            digits[--i] = (byte) ('0' + n % 10);
+            n /= 10;
+        } while (n > 0);
+        for (; i < digits.length; ++i) {
+            writeByte(t, digits[i]);
+        }
+    }
+
+    /**
+     *  Writes the batch to the data file as a run sorted by term. The records
+     *  are laid out exactly like <code>writeDataWithLength</code> does it.
+     */
+    public long writeRun(RandomAccessFile dataFile) throws IOException {
+        String[] order = terms.toArray(new String[0]);
+        Arrays.sort(order);
+
+        if (writeBuffer == null) {
+            writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        }
+        FileChannel channel = dataFile.getChannel();
+        channel.position(0);
+        writeBuffer.clear();
+
+        long free = 0;
+        long written = 0;
+        for (String term : order) {
+            int t = termIDs.get(term);
+            byte[] termBytes = term.getBytes();
+
+            // One unused byte separates the records
+            while (written < free) {
+                put(channel, (byte) 0);
+                ++written;
+            }
+            reserve(channel, 4);
+            writeBuffer.putInt(termBytes.length + 1 + length[t]);
+            for (byte b : termBytes) put(channel, b);
+            put(channel, (byte) '*');
+            copySlices(channel, t);
+
+            int bytesWritten = 4 + termBytes.length + 1 + length[t];
+            written = free + bytesWritten;
+            free += bytesWritten + 1;
+        }
+        drain(channel);
+        return free;
+    }
+
+    /**
+     *  Copies the slice chain of term <code>t</code> to the write buffer.
+     */
+    private void copySlices(FileChannel channel, int t) throws IOException {
+        int address = head[t];
+        int remaining = length[t];
+        int lvl = 0;
+        while (remaining > 0) {
+            int end = address + LEVEL_SIZE[lvl] - 4;
+            int n = Math.min(remaining, end - address);
+            ByteBuffer slice = block(address).duplicate();
+            slice.limit(address % BLOCK_SIZE + n).position(address % BLOCK_SIZE);
+            while (slice.hasRemaining()) {
+                if (!writeBuffer.hasRemaining()) drain(channel);
+                if (slice.remaining() > writeBuffer.remaining()) {
+                    ByteBuffer part = slice.duplicate();
+                    part.limit(part.position() + writeBuffer.remaining());
+                    writeBuffer.put(part);
+                    slice.position(part.position());
+                } else {
+                    writeBuffer.put(slice);
+                }
+            }
+            remaining -= n;
+            if (remaining > 0) {
+                address = block(end).getInt(end % BLOCK_SIZE);
+                lvl = Math.min(lvl + 1, LEVEL_SIZE.length - 1);
+            }
+        }
+    }
+
+    private void put(FileChannel channel, byte b) throws IOException {
+        reserve(channel, 1);
+        writeBuffer.put(b);
+    }
+
+    private void reserve(FileChannel channel, int n) throws IOException {
+        if (writeBuffer.remaining() < n) drain(channel);
+    }
+
+    private void drain(FileChannel channel) throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            channel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+
+    /** Empties the batch. The off-heap blocks are kept for the next batch. */
+    public void clear() {
+        termIDs.clear();
+        terms.clear();
+        currentBlock = -1;
+        blockOffset = BLOCK_SIZE;
+    }
+}
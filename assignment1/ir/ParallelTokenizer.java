@@ -0,0 +1,168 @@
+package ir;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ *  Tokenizes one large text on several threads.
+ *
+ *  The text is read in chunks of about <code>CHUNK_SIZE</code> chars. Each
+ *  chunk is cut just after the last char that cannot occur in a token, and
+ *  the rest is carried over to the next chunk, so no token is ever split.
+ *  Since the tokenizer starts afresh after every such char, the chunks can be
+ *  tokenized (and filtered) independently. The results are handed back in
+ *  order, with the offsets of the earlier chunks added, so they are exactly
+ *  the offsets the serial tokenizer would have produced.
+ *
+ *  Only a bounded number of chunks is in flight at a time, so memory use
+ *  does not grow with the size of the text.
+ */
+public class ParallelTokenizer {
+
+    /** Number of chars per chunk. */
+    public static final int CHUNK_SIZE = 1 << 22;
+
+    /**
+     *  Largest number of chunks in memory at a time, counting the one being
+     *  read. It does not depend on the number of threads, so the memory the
+     *  chunks take (8 MB of chars each, and their tokens) stays the same on
+     *  a machine with many cores.
+     */
+    public static final int MAX_CHUNKS_IN_FLIGHT = 8;
+
+    /**
+     *  Receives the tokens of the text, in order. The token is a reused
+     *  view, only valid during the call.
+     */
+    public interface TokenSink {
+        void token( CharSlice token, int offset );
+    }
+
+    /** The tokens of one chunk that passed the filters. */
+    static class Chunk {
+        TokenQueue tokens = new TokenQueue();
+        int[] offsets = new int[1024];
+        /** Number of tokens in the chunk, including the dropped ones. */
+        int count = 0;
+    }
+
+    final Analyzer analyzer;
+    final int threads;
+    final ExecutorService executor;
+
+
+    public ParallelTokenizer( Analyzer analyzer, int threads ) {
+        this.analyzer = analyzer;
+        this.threads = threads;
+        executor = Executors.newFixedThreadPool( threads, r -> {
+            Thread t = new Thread( r, "tokenizer" );
+            t.setDaemon( true );
+            return t;
+        });
+    }
+
+
+    /**
+     *  Tokenizes and filters all of <code>reader</code>, and passes the tokens 
+     *  that were not dropped to <code>sink</code> on the calling thread.
+     *
+     *  @return the number of tokens in the text, including dropped ones.
+     */
+    public int tokenize( Reader reader, TokenSink sink ) throws IOException {
+        // Tells the token chars from the separators
+        Tokenizer classifier = analyzer.tokenizer( null );
+        ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+        int offset = 0;
+        char[] carry = new char[0];
+        boolean eof = false;
+        while ( !eof ) {
+            char[] text = Arrays.copyOf( carry, Math.max( CHUNK_SIZE, 2*carry.length ));
+            int end = carry.length;
+            while ( end < text.length ) {
+                int n = reader.read( text, end, text.length-end );
+                if ( n < 0 ) {
+                    eof = true;
+                    break;
+                }
+                // The tokenizer stops at the first '\0'
+                for ( int i=end; i<end+n; i++ ) {
+                    if ( text[i] == 0 ) {
+                        n = i - end;
+                        eof = true;
+                        break;
+                    }
+                }
+                end += n;
+                if ( eof ) break;
+            }
+            int cut = end;
+            if ( !eof ) {
+                // Cut after the last separator, and keep the rest for the next chunk
+                cut = end - 1;
+                while ( cut >= 0 && classifier.tokenChar( text[cut] )) {
+                    cut--;
+                }
+                cut++;
+            }
+            carry = Arrays.copyOfRange( text, cut, end );
+            if ( cut > 0 ) {
+                final char[] chunk_text = text;
+                final int length = cut;
+                pending.add( executor.submit( () -> tokenizeChunk( chunk_text, length )));
+            }
+            while ( pending.size() > ( eof ? 0 : MAX_CHUNKS_IN_FLIGHT-1 )) {
+                offset = deliver( pending.poll(), offset, sink );
+            }
+        }
+        return offset;
+    }
+
+
+    /**
+     *  Tokenizes <code>text[0..length)</code>, which ends with a separator 
+     *  (or at the end of the text).
+     */
+    private Chunk tokenizeChunk( char[] text, int length ) throws IOException {
+        Chunk chunk = new Chunk();
+        Tokenizer tok = analyzer.tokenizer( new CharArrayReader( text, 0, length ));
+        while ( tok.hasMoreTokens() ) {
+            CharSlice token = tok.nextTokenSlice();
+            if ( analyzer.filter( token )) {
+                int i = chunk.tokens.size();
+                if ( i == chunk.offsets.length ) {
+                    chunk.offsets = Arrays.copyOf( chunk.offsets, 2*i );
+                }
+                chunk.offsets[i] = chunk.count;
+                chunk.tokens.add( token.chars, token.offset, token.length );
+            }
+            chunk.count++;
+        }
+        return chunk;
+    }
+
+
+    private int deliver( Future<Chunk> future, int offset, TokenSink sink ) throws IOException {
+        Chunk chunk;
+        try {
+            chunk = future.get();
+        }
+        catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new IOException( e );
+        }
+        catch ( ExecutionException e ) {
+            throw new IOException( e.getCause() );
+        }
+        for ( int i=0; !chunk.tokens.isEmpty(); i++ ) {
+            sink.token( chunk.tokens.poll(), offset + chunk.offsets[i] );
+        }
+        return offset + chunk.count;
+    }
+}
@@ -0,0 +1,476 @@
+package ir;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ *  The patterns matching non-standard words, compiled so that a token can
+ *  be searched for all of them at once.
+ *
+ *  The tokenizer uses the first pattern (in file order) that occurs anywhere
+ *  in a token. Instead of trying the patterns one at a time, we compile the
+ *  alternation <code>(p0)|(p1)|...|(pk)</code> for every prefix of the list.
+ *  One scan with the full alternation finds the leftmost match; if it belongs
+ *  to pattern i, only patterns before i can still win, and they can only match
+ *  further to the right. So we continue with the alternation of p0..p(i-1)
+ *  after that position, until nothing earlier matches. For a typical token
+ *  this takes one or two scans, however many patterns there are.
+ *
+ *  Before any regular expression is run, a token is checked against a
+ *  cheap prefilter. Every pattern is analysed once for the characters
+ *  (@, :, /, digits, ...) that any match must contain, and the tokenizer
+ *  records which of these characters a token contains while it scans it.
+ *  Patterns that need a character the token lacks are skipped.
+ *
+ *  The compiled patterns are immutable and can be shared between threads.
+ *  Each tokenizer gets its own <code>Finder</code>.
+ */
+public class PatternSet {
+
+    /*
+     *  Character classes used by the prefilter, one bit each.
+     */
+    public static final int AT = 1;
+    public static final int COLON = 1 << 1;
+    public static final int SLASH = 1 << 2;
+    public static final int DOT = 1 << 3;
+    public static final int APOSTROPHE = 1 << 4;
+    public static final int PLUS = 1 << 5;
+    public static final int DOLLAR = 1 << 6;
+    public static final int HYPHEN = 1 << 7;
+    public static final int COMMA = 1 << 8;
+    public static final int UNDERSCORE = 1 << 9;
+    public static final int DIGIT = 1 << 10;
+    public static final int LETTER = 1 << 11;
+    /** Any of the characters matching \w, i.e. [a-zA-Z_0-9]. */
+    public static final int WORD = 1 << 12;
+
+    /** Prefilter classes of the ASCII characters. Other characters have none. */
+    private static final int[] CHAR_MASK = new int[128];
+
+    static {
+        CHAR_MASK['@'] = AT;
+        CHAR_MASK[':'] = COLON;
+        CHAR_MASK['/'] = SLASH;
+        CHAR_MASK['.'] = DOT;
+        CHAR_MASK['\''] = APOSTROPHE;
+        CHAR_MASK['+'] = PLUS;
+        CHAR_MASK['$'] = DOLLAR;
+        CHAR_MASK['-'] = HYPHEN;
+        CHAR_MASK[','] = COMMA;
+        CHAR_MASK['_'] = UNDERSCORE | WORD;
+        for ( char c='0'; c<='9'; c++ ) CHAR_MASK[c] = DIGIT | WORD;
+        for ( char c='a'; c<='z'; c++ ) CHAR_MASK[c] = LETTER | WORD;
+        for ( char c='A'; c<='Z'; c++ ) CHAR_MASK[c] = LETTER | WORD;
+    }
+
+    /** Returns the prefilter classes of a character. */
+    public static int charMask( char c ) {
+        return c < 128 ? CHAR_MASK[c] : 0;
+    }
+
+    /** The patterns, in the order they appear in the file. */
+    final Pattern[] patterns;
+
+    /**
+     *  <code>combined[k]</code> is the alternation of patterns 0..k, or
+     *  <code>combined</code> is null if the patterns can't be combined.
+     */
+    final Pattern[] combined;
+
+    /** The capturing group of each pattern in the combined patterns. */
+    final int[] group;
+
+    /** The prefilter classes that every match of each pattern contains. */
+    final int[] required;
+
+
+    public PatternSet( List<Pattern> patterns ) {
+        this.patterns = patterns.toArray( new Pattern[0] );
+        required = new int[this.patterns.length];
+        for ( int k=0; k<this.patterns.length; k++ ) {
+            required[k] = new Requirements( this.patterns[k].pattern() ).analyse();
+        }
+        group = new int[this.patterns.length];
+        Pattern[] combined = new Pattern[this.patterns.length];
+        StringBuilder alternation = new StringBuilder();
+        int groups = 0;
+        try {
+            for ( int k=0; k<this.patterns.length; k++ ) {
+                String regex = this.patterns[k].pattern();
+                if ( hasBackReference( regex )) {
+                    // Wrapping would renumber the groups
+                    combined = null;
+                    break;
+                }
+                group[k] = groups + 1;
+                groups += 1 + this.patterns[k].matcher( "" ).groupCount();
+                if ( k > 0 ) alternation.append( '|' );
+                alternation.append( '(' ).append( regex ).append( ')' );
+                combined[k] = Pattern.compile( alternation.toString() );
+            }
+        }
+        catch ( PatternSyntaxException e ) {
+            combined = null;
+        }
+        this.combined = combined;
+    }
+
+
+    /**
+     *  Reads the patterns from file. Lines starting with "//" are comments.
+     */
+    public static PatternSet read( String filename ) {
+        ArrayList<Pattern> patterns = new ArrayList<Pattern>();
+        String line = null;
+        try {
+            BufferedReader in = new BufferedReader( new FileReader( filename ));
+            while (( line = in.readLine()) != null ) {
+                line = line.trim();
+                if ( !line.startsWith( "//" ) && line.length() > 0 ) {
+                    patterns.add( Pattern.compile( line ));
+                }
+            }
+            in.close();
+        }
+        catch ( IOException e ) {
+            System.err.println( "Warning: IOException reading the regular expressions from file" );
+        }
+        catch ( PatternSyntaxException e ) {
+            System.err.println( "ERROR: Malformed regular expression: " + line );
+        }
+        return new PatternSet( patterns );
+    }
+
+
+    public int size() {
+        return patterns.length;
+    }
+
+
+    /**
+     *  Returns true if the regular expression refers back to a group
+     *  (\1, \k&lt;name&gt;), which would break when it is wrapped in an alternation.
+     */
+    static boolean hasBackReference( String regex ) {
+        for ( int i=0; i<regex.length()-1; i++ ) {
+            if ( regex.charAt( i ) == '\\' ) {
+                char c = regex.charAt( i+1 );
+                if (( c >= '1' && c <= '9' ) || c == 'k' ) {
+                    return true;
+                }
+                // Skip the escaped character
+                i++;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     *  Works out which prefilter classes every match of a regular expression
+     *  must contain. A sequence needs what each of its mandatory parts needs,
+     *  an alternation only what all alternatives need, and a character class
+     *  only what all its characters have in common. Anything the analysis
+     *  does not understand needs nothing, so the result is always safe to use.
+     */
+    static class Requirements {
+
+        String re;
+        int pos = 0;
+
+        Requirements( String re ) {
+            this.re = re;
+        }
+
+        int analyse() {
+            try {
+                int mask = alternation();
+                return pos == re.length() ? mask : 0;
+            }
+            catch ( IllegalArgumentException | IndexOutOfBoundsException e ) {
+                return 0;
+            }
+        }
+
+        private boolean more() {
+            return pos < re.length();
+        }
+
+        private int alternation() {
+            int mask = sequence();
+            while ( more() && re.charAt( pos ) == '|' ) {
+                pos++;
+                mask &= sequence();
+            }
+            return mask;
+        }
+
+        private int sequence() {
+            int mask = 0;
+            while ( more() && re.charAt( pos ) != '|' && re.charAt( pos ) != ')' ) {
+                int atom = atom();
+                if ( !optional() ) {
+                    mask |= atom;
+                }
+            }
+            return mask;
+        }
+
+        private int atom() {
+            char c = re.charAt( pos++ );
+            switch ( c ) {
+            case '(':
+                int mask = group();
+                if ( re.charAt( pos++ ) != ')' ) throw new IllegalArgumentException();
+                return mask;
+            case '[':
+                return characterClass();
+            case '\\':
+                return escape( false );
+            case '.': case '^': case '$':
+                return 0;
+            case '*': case '+': case '?': case '{':
+                throw new IllegalArgumentException();
+            default:
+                return charMask( c );
+            }
+        }
+
+        private int group() {
+            if ( re.charAt( pos ) != '?' ) {
+                return alternation();
+            }
+            pos++;
+            char c = re.charAt( pos++ );
+            if ( c == ':' || c == '>' ) {
+                return alternation();
+            }
+            if ( c == '=' || c == '!' ) {
+                // Lookahead, consumes nothing
+                alternation();
+                return 0;
+            }
+            if ( c == '<' ) {
+                c = re.charAt( pos );
+                if ( c == '=' || c == '!' ) {
+                    pos++;
+                    alternation();
+                    return 0;
+                }
+                // Named group
+                pos = re.indexOf( '>', pos ) + 1;
+                if ( pos == 0 ) throw new IllegalArgumentException();
+                return alternation();
+            }
+            // Inline flags may change how the rest is parsed
+            throw new IllegalArgumentException();
+        }
+
+        /** Returns true if the quantifier after an atom (if any) allows zero repetitions. */
+        private boolean optional() {
+            if ( !more() ) return false;
+            char c = re.charAt( pos );
+            boolean optional;
+            if ( c == '?' || c == '*' ) {
+                pos++;
+                optional = true;
+            } else if ( c == '+' ) {
+                pos++;
+                optional = false;
+            } else if ( c == '{' ) {
+                int close = re.indexOf( '}', pos );
+                if ( close < 0 ) throw new IllegalArgumentException();
+                String min = re.substring( pos+1, close ).split( ",", -1 )[0].trim();
+                optional = Integer.parseInt( min ) == 0;
+                pos = close + 1;
+            } else {
+                return false;
+            }
+            // Lazy and possessive quantifiers
+            if ( more() && ( re.charAt( pos ) == '?' || re.charAt( pos ) == '+' )) {
+                pos++;
+            }
+            return optional;
+        }
+
+        private int characterClass() {
+            boolean negated = false;
+            if ( re.charAt( pos ) == '^' ) {
+                negated = true;
+                pos++;
+            }
+            int mask = -1;
+            boolean first = true;
+            while ( re.charAt( pos ) != ']' || first ) {
+                first = false;
+                char c = re.charAt( pos++ );
+                if ( c == '[' || ( c == '&' && re.charAt( pos ) == '&' )) {
+                    throw new IllegalArgumentException();
+                }
+                if ( c == '\\' ) {
+                    mask &= escape( true );
+                    continue;
+                }
+                if ( re.charAt( pos ) == '-' && re.charAt( pos+1 ) != ']' ) {
+                    char to = re.charAt( pos+1 );
+                    if ( to == '\\' || to == '[' ) throw new IllegalArgumentException();
+                    pos += 2;
+                    for ( int x=c; x<=to; x++ ) {
+                        mask &= charMask( (char) x );
+                    }
+                    continue;
+                }
+                mask &= charMask( c );
+            }
+            pos++;
+            return negated ? 0 : mask;
+        }
+
+        private int escape( boolean inClass ) {
+            char c = re.charAt( pos++ );
+            switch ( c ) {
+            case 'd':
+                return DIGIT | WORD;
+            case 'w':
+                return WORD;
+            case 'p': case 'P':
+                if ( re.charAt( pos ) == '{' ) {
+                    pos = re.indexOf( '}', pos ) + 1;
+                    if ( pos == 0 ) throw new IllegalArgumentException();
+                } else {
+                    pos++;
+                }
+                return 0;
+            case 'D': case 'W': case 's': case 'S': case 't': case 'n': case 'r': case 'f': case 'a': case 'e':
+                return 0;
+            case 'b': case 'B': case 'A': case 'z': case 'Z': case 'G':
+                if ( inClass ) throw new IllegalArgumentException();
+                return 0;
+            default:
+                if ( Character.isLetterOrDigit( c )) {
+                    // \x41, \u0041, \0101, \Q...\E, back references, ...
+                    throw new IllegalArgumentException();
+                }
+                // An escaped punctuation character
+                return charMask( c );
+            }
+        }
+    }
+
+
+    /** Creates the matching state for one tokenizer. */
+    public Finder finder() {
+        return new Finder();
+    }
+
+
+    /**
+     *  Searches a token for the first pattern that occurs in it. Not thread-safe.
+     */
+    public class Finder {
+
+        /** Matchers for the single patterns, used if they can't be combined. */
+        Matcher[] single;
+
+        /** Matchers for the combined patterns. */
+        Matcher[] prefix;
+
+        /** Position of the match found by the last call to <code>find</code>. */
+        int start, end;
+
+        Finder() {
+            if ( combined == null ) {
+                single = new Matcher[patterns.length];
+                for ( int k=0; k<patterns.length; k++ ) {
+                    single[k] = patterns[k].matcher( "" );
+                }
+            } else {
+                prefix = new Matcher[patterns.length];
+                for ( int k=0; k<patterns.length; k++ ) {
+                    prefix[k] = combined[k].matcher( "" );
+                }
+            }
+        }
+
+        /**
+         *  Looks for the first pattern (in file order) that occurs in
+         *  <code>s</code>, and returns <code>true</code> if there is one.
+         *  The match is then found at <code>start()..end()</code>.
+         */
+        public boolean find( CharSequence s ) {
+            return find( s, -1 );
+        }
+
+        /**
+         *  Like <code>find(s)</code>, but patterns that need a prefilter
+         *  class missing from <code>mask</code> are not tried.
+         *
+         *  @param mask The prefilter classes of the characters in <code>s</code>
+         *         (or a superset of them).
+         */
+        public boolean find( CharSequence s, int mask ) {
+            if ( prefix == null ) {
+                for ( int k=0; k<single.length; k++ ) {
+                    if (( required[k] & ~mask ) != 0 ) {
+                        continue;
+                    }
+                    Matcher m = single[k];
+                    m.reset( s );
+                    if ( m.find() ) {
+                        start = m.start();
+                        end = m.end();
+                        return true;
+                    }
+                }
+                return false;
+            }
+            boolean found = false;
+            int k = lastPossible( patterns.length - 1, mask );
+            int from = 0;
+            while ( k >= 0 && from <= s.length() ) {
+                Matcher m = prefix[k].reset( s );
+                if ( !m.find( from )) {
+                    break;
+                }
+                // Find out which pattern matched. Patterns before it
+                // may still match, but only to the right of this match.
+                int i = 0;
+                while ( m.start( group[i] ) < 0 ) {
+                    i++;
+                }
+                start = m.start();
+                end = m.end();
+                found = true;
+                k = lastPossible( i - 1, mask );
+                from = start + 1;
+            }
+            return found;
+        }
+
+        /**
+         *  Returns the last pattern at or before <code>k</code> that passes
+         *  the prefilter, or -1.
+         */
+        private int lastPossible( int k, int mask ) {
+            while ( k >= 0 && ( required[k] & ~mask ) != 0 ) {
+                k--;
+            }
+            return k;
+        }
+
+        public int start() {
+            return start;
+        }
+
+        public int end() {
+            return end;
+        }
+    }
+}
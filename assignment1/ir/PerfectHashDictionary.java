@@ -0,0 +1,324 @@
+package ir;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ *  A read-only on-disk dictionary built as a minimal perfect hash function
+ *  over a fixed vocabulary, for indexes that are written once and then only
+ *  searched.
+ *
+ *  The function is built by hash and displace: the terms are spread over
+ *  buckets of about <code>BUCKET_SIZE</code> terms, and for every bucket,
+ *  largest first, a pilot value is searched for that sends all its terms
+ *  to slots that are still free. A bucket with a single term is simply given
+ *  the next free slot. The n terms thus get the slots 0..n-1, and a lookup
+ *  reads the pilot of its bucket from memory and then exactly one slot.
+ *
+ *  A slot only holds the pointer to the record, in as few bytes as the
+ *  largest pointer needs, and a 16-bit fingerprint of the term. The records
+ *  must say which term they are for, since a term that is not in the
+ *  dictionary also hashes to some slot; the fingerprint rejects almost all
+ *  of those without reading the record.
+ *
+ *  File layout:
+ *    header: magic, version, number of terms, number of buckets, first
+ *            direct pilot, bytes per pilot, bytes per pointer
+ *    pilots: one per bucket
+ *    slots:  pointer, fingerprint (2 bytes)
+ */
+public class PerfectHashDictionary {
+
+    public static final int MAGIC = 0x4d504844;
+
+    public static final int VERSION = 1;
+
+    public static final int HEADER_SIZE = 24;
+
+    /** Average number of terms per bucket. */
+    public static final int BUCKET_SIZE = 4;
+
+    /** Give up on a bucket after this many pilots. */
+    static final int MAX_PILOT = 1 << 24;
+
+
+    /** Tells if the record at a pointer is the one for the term looked up. */
+    public interface RecordCheck {
+        boolean isTerm( long ptr );
+    }
+
+
+    ChannelReader reader;
+    MappedFile map;
+    int numberOfTerms;
+    int numberOfBuckets;
+    int directBase;
+    int pilotBytes;
+    int ptrBytes;
+    int slotSize;
+    long slotsStart;
+
+    /** The pilots, kept in memory. */
+    int[] pilots;
+
+
+    /**
+     *  Opens a dictionary written by a <code>Builder</code>.
+     *
+     *  @param memoryMapped If true, the slots are read through a memory map.
+     */
+    public PerfectHashDictionary( RandomAccessFile file, boolean memoryMapped ) throws IOException {
+        reader = new ChannelReader( file );
+        file.seek( 0 );
+        if ( file.length() < HEADER_SIZE || file.readInt() != MAGIC ) {
+            throw new IOException( "Not a perfect hash dictionary" );
+        }
+        file.readInt();   // version
+        numberOfTerms = file.readInt();
+        numberOfBuckets = file.readInt();
+        directBase = file.readInt();
+        pilotBytes = file.readUnsignedByte();
+        ptrBytes = file.readUnsignedByte();
+        slotSize = ptrBytes + 2;
+
+        byte[] packed = new byte[numberOfBuckets * pilotBytes];
+        file.seek( HEADER_SIZE );
+        file.readFully( packed );
+        pilots = new int[numberOfBuckets];
+        for ( int b=0; b<numberOfBuckets; b++ ) {
+            pilots[b] = (int) getNumber( packed, b * pilotBytes, pilotBytes );
+        }
+        slotsStart = HEADER_SIZE + packed.length;
+        if ( memoryMapped ) {
+            map = new MappedFile( file );
+        }
+    }
+
+
+    /**
+     *  Returns true if the file starts like a dictionary in this format.
+     */
+    public static boolean isPerfectHashDictionary( RandomAccessFile file ) {
+        try {
+            if ( file.length() < HEADER_SIZE ) return false;
+            file.seek( 0 );
+            return file.readInt() == MAGIC;
+        } catch ( IOException e ) {
+            return false;
+        }
+    }
+
+
+    public int size() {
+        return numberOfTerms;
+    }
+
+
+    /**
+     *  Looks up a term. If the fingerprint of its slot matches, the pointer
+     *  is handed to <code>check</code>, which reads the record to see if it
+     *  is really the term.
+     *
+     *  @return the pointer to the record of the term, or -1.
+     */
+    public long lookup( byte[] term, RecordCheck check ) {
+        if ( numberOfTerms == 0 ) return -1;
+        long h = HashDictionary.hash( term );
+        long offset = slotsStart + (long) slot( h, pilots[bucket( h, numberOfBuckets )], directBase, numberOfTerms ) * slotSize;
+        byte[] s = new byte[slotSize];
+        if ( map != null ) {
+            map.get( offset, s );
+        } else {
+            try {
+                reader.read( offset, s );
+            } catch ( IOException e ) {
+                e.printStackTrace();
+                return -1;
+            }
+        }
+        if ( (int) getNumber( s, ptrBytes, 2 ) != fingerprint( h )) {
+            return -1;
+        }
+        long ptr = getNumber( s, 0, ptrBytes );
+        return check.isTerm( ptr ) ? ptr : -1;
+    }
+
+
+    static int bucket( long h, int numberOfBuckets ) {
+        return (int) HashDictionary.home( h, numberOfBuckets );
+    }
+
+    /** The slot of a hash in a bucket with the given pilot. */
+    static int slot( long h, int pilot, int directBase, int n ) {
+        if ( pilot >= directBase ) {
+            return pilot - directBase;
+        }
+        long x = h + pilot * 0x9e3779b97f4a7c15L;
+        x ^= x >>> 33;
+        x *= 0xff51afd7ed558ccdL;
+        x ^= x >>> 33;
+        return (int) HashDictionary.home( x, n );
+    }
+
+    static int fingerprint( long h ) {
+        return (int) h & 0xffff;
+    }
+
+    static long getNumber( byte[] b, int off, int len ) {
+        long x = 0;
+        for ( int i=0; i<len; i++ ) {
+            x = ( x << 8 ) | ( b[off+i] & 0xff );
+        }
+        return x;
+    }
+
+    /** Number of bytes needed for a non-negative number. */
+    static int bytesNeeded( long x ) {
+        int n = 1;
+        while ( ( x >>>= 8 ) != 0 ) n++;
+        return n;
+    }
+
+
+    // ==================================================================
+
+
+    /**
+     *  Collects the terms and builds the function once all are known.
+     */
+    public static class Builder {
+
+        long[] hashes = new long[1024];
+        long[] ptrs = new long[1024];
+        int n = 0;
+
+        /** Adds a term and the pointer to its record. */
+        public void add( byte[] term, long ptr ) {
+            if ( n == hashes.length ) {
+                hashes = Arrays.copyOf( hashes, 2*n );
+                ptrs = Arrays.copyOf( ptrs, 2*n );
+            }
+            hashes[n] = HashDictionary.hash( term );
+            ptrs[n] = ptr;
+            n++;
+        }
+
+        /**
+         *  Builds the function and writes the dictionary to <code>filename</code>.
+         *
+         *  @throws IOException if no pilot is found for some bucket, which
+         *          only happens if two terms have the same 64-bit hash.
+         */
+        public void write( String filename ) throws IOException {
+            int numberOfBuckets = Math.max( 1, ( n + BUCKET_SIZE - 1 ) / BUCKET_SIZE );
+
+            // Sort the terms by bucket (counting sort)
+            int[] start = new int[numberOfBuckets + 1];
+            for ( int i=0; i<n; i++ ) {
+                start[bucket( hashes[i], numberOfBuckets ) + 1]++;
+            }
+            for ( int b=0; b<numberOfBuckets; b++ ) {
+                start[b+1] += start[b];
+            }
+            int[] members = new int[n];
+            int[] next = Arrays.copyOf( start, numberOfBuckets );
+            for ( int i=0; i<n; i++ ) {
+                members[next[bucket( hashes[i], numberOfBuckets )]++] = i;
+            }
+
+            // Largest buckets first, when there are still many free slots
+            Integer[] order = new Integer[numberOfBuckets];
+            for ( int b=0; b<numberOfBuckets; b++ ) order[b] = b;
+            Arrays.sort( order, ( a, b ) -> ( start[b+1] - start[b] ) - ( start[a+1] - start[a] ));
+
+            int[] pilots = new int[numberOfBuckets];
+            int[] slotOf = new int[n];
+            boolean[] taken = new boolean[n];
+            int[] tried = new int[BUCKET_SIZE * 16];
+            int maxPilot = 0;
+            int k = 0;
+            for ( ; k<numberOfBuckets; k++ ) {
+                int b = order[k];
+                int size = start[b+1] - start[b];
+                if ( size <= 1 ) break;
+                if ( size > tried.length ) tried = new int[size];
+                int pilot = 0;
+                search:
+                for ( ; ; pilot++ ) {
+                    if ( pilot == MAX_PILOT ) {
+                        throw new IOException( "No perfect hash pilot found" );
+                    }
+                    for ( int j=0; j<size; j++ ) {
+                        int s = slot( hashes[members[start[b]+j]], pilot, Integer.MAX_VALUE, n );
+                        if ( taken[s] ) continue search;
+                        for ( int i=0; i<j; i++ ) {
+                            if ( tried[i] == s ) continue search;
+                        }
+                        tried[j] = s;
+                    }
+                    break;
+                }
+                for ( int j=0; j<size; j++ ) {
+                    taken[tried[j]] = true;
+                    slotOf[members[start[b]+j]] = tried[j];
+                }
+                pilots[b] = pilot;
+                maxPilot = Math.max( maxPilot, pilot );
+            }
+
+            // Buckets of one term get the remaining slots directly
+            int directBase = maxPilot + 1;
+            int free = 0;
+            for ( ; k<numberOfBuckets; k++ ) {
+                int b = order[k];
+                if ( start[b+1] == start[b] ) continue;
+                while ( taken[free] ) free++;
+                taken[free] = true;
+                slotOf[members[start[b]]] = free;
+                pilots[b] = directBase + free;
+            }
+
+            int maxValue = directBase;
+            for ( int p : pilots ) maxValue = Math.max( maxValue, p );
+            long maxPtr = 0;
+            for ( int i=0; i<n; i++ ) maxPtr = Math.max( maxPtr, ptrs[i] );
+            int pilotBytes = bytesNeeded( maxValue );
+            int ptrBytes = bytesNeeded( maxPtr );
+
+            long[] slotPtr = new long[n];
+            int[] slotFingerprint = new int[n];
+            for ( int i=0; i<n; i++ ) {
+                slotPtr[slotOf[i]] = ptrs[i];
+                slotFingerprint[slotOf[i]] = fingerprint( hashes[i] );
+            }
+
+            DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( filename ), 1 << 16 ));
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeInt( n );
+            out.writeInt( numberOfBuckets );
+            out.writeInt( directBase );
+            out.writeByte( pilotBytes );
+            out.writeByte( ptrBytes );
+            out.writeShort( 0 );
+            for ( int p : pilots ) {
+                writeNumber( out, p, pilotBytes );
+            }
+            for ( int s=0; s<n; s++ ) {
+                writeNumber( out, slotPtr[s], ptrBytes );
+                out.writeShort( slotFingerprint[s] );
+            }
+            out.close();
+        }
+
+        private static void writeNumber( DataOutputStream out, long x, int len ) throws IOException {
+            for ( int i=len-1; i>=0; i-- ) {
+                out.writeByte( (int) ( x >>> ( 8*i )));
+            }
+        }
+    }
+}
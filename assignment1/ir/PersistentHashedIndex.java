@@ -8,6 +8,8 @@
 package ir;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 
@@ -21,6 +23,21 @@ import java.util.*;
  *   When words are read and indexed, they are first put in an ordinary,
  *   main-memory HashMap. When all words are read, the index is committed
  *   to disk.
+ *
+ *   The postings are stored as binary records (see PostingsCodec) after a
+ *   small header. Data files written before that, as "term*docID:off,..."
+ *   text, are recognized by the missing header and can still be read.
+ *   The dictionary is a HashDictionary sized from the number of terms,
+ *   with a fingerprint of the term in each slot, so that a probe that lands
+ *   on another term rarely has to read the data file. Dictionaries of older
+ *   versions, a fixed table of TABLESIZE slots, can still be read.
+ *
+ *   Lookups only use positional reads (see ChannelReader) or memory maps,
+ *   so getPostings can be called from several threads at once.
+ *
+ *   Next to the hashed dictionary a sorted, front-coded dictionary of the
+ *   terms is written (see SortedTermDictionary). It is used to list terms
+ *   by prefix, and optionally for all lookups.
  */
 public class PersistentHashedIndex implements Index {
 
@@ -39,7 +56,10 @@ public class PersistentHashedIndex implements Index {
     /** The doc info file name */
     public static final String DOCINFO_FNAME = "docInfo";
 
-    /** The dictionary hash table on disk can fit this many entries. */
+    /** The binary doc store file name */
+    public static final String DOCSTORE_FNAME = "docstore";
+
+    /** The dictionary hash table of an index before version 3 has this many entries. */
     public static final long TABLESIZE = 611953L;
 
     /** The dictionary hash table is stored in this file. */
@@ -48,6 +68,10 @@ public class PersistentHashedIndex implements Index {
     /** The data (the PostingsLists) are stored in this file. */
     RandomAccessFile dataFile;
 
+    /** Positional readers of the two files, for lookups from many threads. */
+    ChannelReader dictionaryReader;
+    ChannelReader dataReader;
+
     /** Pointer to the first free memory cell in the data file. */
     long free = 0L;
 
@@ -57,6 +81,41 @@ public class PersistentHashedIndex implements Index {
     long size_dict = 12;
     long SIZE_DATAFILE;
 
+    /** Is the data file in the binary format? Otherwise it is in the old text format. */
+    boolean binary = true;
+
+    /** The format version (see PostingsCodec) of a binary index. */
+    int version = PostingsCodec.VERSION;
+
+    /** Encodes the records when the index is written. */
+    PostingsCodec codec = new PostingsCodec();
+
+    /** If true, lookups read the dictionary and the data through memory maps. */
+    boolean memoryMapped = false;
+
+    /** The memory-mapped files, mapped on the first lookup. */
+    volatile MappedFile dictionaryMap;
+    volatile MappedFile dataMap;
+
+    /** The dictionary of a version 3 index, opened on the first lookup. */
+    volatile HashDictionary hashDictionary;
+
+    /**
+     *  The names, lengths, euclidean lengths and pageranks of the documents,
+     *  if the index has a doc store. The docNames, docLengths, euclideanLength
+     *  and pageRank maps are then not filled in when the index is opened.
+     */
+    volatile DocStore docStore;
+
+    /** Caches the records of recently used terms, if not null. */
+    PostingsCache cache;
+
+    /** If true, lookups go through the sorted dictionary instead of the hashed one. */
+    boolean sortedLookups = false;
+
+    /** The sorted dictionary, opened on first use. */
+    volatile SortedTermDictionary sortedDictionary;
+
 
     // ===================================================================
 
@@ -66,6 +125,7 @@ public class PersistentHashedIndex implements Index {
     public class Entry {
         public long ptr;
         public int size;
+        public int fingerprint;
         public int collisions = 0;
 
         public Entry(long ptr) {
@@ -92,20 +152,66 @@ public class PersistentHashedIndex implements Index {
         try {
             dictionaryFile = new RandomAccessFile( INDEXDIR + "/" + DICTIONARY_FNAME, "rw" );
             dataFile = new RandomAccessFile( INDEXDIR + "/" + DATA_FNAME, "rw" );
+            dictionaryReader = new ChannelReader( dictionaryFile );
+            dataReader = new ChannelReader( dataFile );
             SIZE_DATAFILE = dictionaryFile.length();
+            if ( dataFile.length() >= PostingsCodec.HEADER_SIZE ) {
+                dataFile.seek( 0 );
+                binary = dataFile.readInt() == PostingsCodec.MAGIC;
+                if ( binary ) {
+                    version = dataFile.readInt();
+                }
+            }
+            // Slots with a fingerprint take 16 bytes
+            size_dict = ( binary && version >= 2 ) ? 16 : 12;
         } catch ( IOException e ) {
             e.printStackTrace();
         }
 
         try {
-            readDocInfo();
-            readEuclideanLength();
+            File store = new File( INDEXDIR + "/" + DOCSTORE_FNAME );
+            if ( store.exists() ) {
+                docStore = new DocStore( store.getPath() );
+            } else {
+                readDocInfo();
+                readEuclideanLength();
+            }
         } catch ( FileNotFoundException e ) {
         } catch ( IOException e ) {
             e.printStackTrace();
         }
     }
 
+    /**
+     *  Constructor.
+     *
+     *  @param memoryMapped If true, the dictionary and data files are mapped
+     *         into memory for lookups, instead of being read with seek and read.
+     */
+    public PersistentHashedIndex( boolean memoryMapped ) {
+        this();
+        this.memoryMapped = memoryMapped;
+    }
+
+
+    /**
+     *  Maps the dictionary and data files into memory, if that is asked for
+     *  and not done yet. The maps are only used for reading, and are dropped
+     *  when the index is written again.
+     */
+    synchronized void mapFiles( RandomAccessFile dictionary, RandomAccessFile data ) {
+        if ( !memoryMapped || dictionaryMap != null ) return;
+        try {
+            dictionaryMap = new MappedFile( dictionary );
+            dataMap = new MappedFile( data );
+        } catch ( IOException e ) {
+            e.printStackTrace();
+            dictionaryMap = null;
+            dataMap = null;
+        }
+    }
+
+
     /**
      *  Writes data to the data file at a specified place.
      *
@@ -124,14 +230,56 @@ public class PersistentHashedIndex implements Index {
     }
 
 
+    /**
+     *  Writes the first <code>length</code> bytes of <code>data</code> to the
+     *  data file at a specified place.
+     *
+     *  @return The number of bytes written.
+     */ 
+    int writeData( byte[] data, int length, long ptr ) {
+        try {
+            dataFile.seek( ptr ); 
+            dataFile.write( data, 0, length );
+            return length;
+        } catch ( IOException e ) {
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+
+    /**
+     *  Reads a binary record from the data file
+     */ 
+    byte[] readBytes( long ptr, int size ) {
+        if ( dataMap != null ) {
+            byte[] data = new byte[size];
+            dataMap.get( ptr, data );
+            return data;
+        }
+        try {
+            byte[] data = new byte[size];
+            dataReader.read( ptr, data );
+            return data;
+        } catch ( IOException e ) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+
     /**
      *  Reads data from the data file
      */ 
     String readData( long ptr, int size ) {
+        if ( dataMap != null ) {
+            byte[] data = new byte[size];
+            dataMap.get( ptr, data );
+            return new String(data);
+        }
         try {
-            dataFile.seek( ptr );
             byte[] data = new byte[size];
-            dataFile.readFully( data );
+            dataReader.read( ptr, data );
             return new String(data);
         } catch ( IOException e ) {
             e.printStackTrace();
@@ -156,6 +304,9 @@ public class PersistentHashedIndex implements Index {
             dictionaryFile.writeLong(entry.ptr);
             dictionaryFile.seek(ptr+8);
             dictionaryFile.writeInt(entry.size);
+            if (size_dict == 16) {
+                dictionaryFile.writeInt(entry.fingerprint);
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -170,11 +321,24 @@ public class PersistentHashedIndex implements Index {
      */
     Entry readEntry( long ptr ) {
         Entry entry = new Entry();
+        if ( dictionaryMap != null ) {
+            if ( ptr + size_dict > dictionaryMap.length() ) return null;
+            entry.ptr = dictionaryMap.getLong(ptr);
+            entry.size = dictionaryMap.getInt(ptr+8);
+            if ( size_dict == 16 ) {
+                entry.fingerprint = dictionaryMap.getInt(ptr+12);
+            }
+            return entry;
+        }
         try {
-            dictionaryFile.seek(ptr);
-            entry.ptr = dictionaryFile.readLong();
-            //dictionaryFile.seek(ptr+8);
-            entry.size = dictionaryFile.readInt();
+            byte[] slot = new byte[(int) size_dict];
+            dictionaryReader.read(ptr, slot);
+            ByteBuffer b = ByteBuffer.wrap(slot);
+            entry.ptr = b.getLong();
+            entry.size = b.getInt();
+            if ( size_dict == 16 ) {
+                entry.fingerprint = b.getInt();
+            }
         } catch ( IOException e ) {
             return null;
         }
@@ -200,6 +364,22 @@ public class PersistentHashedIndex implements Index {
     }
 
 
+    /**
+     *  Writes the doc store from the docNames, docLengths, euclideanLength
+     *  and pageRank maps, and opens it.
+     */
+    private void writeDocStore() throws IOException {
+        String filename = INDEXDIR + "/" + DOCSTORE_FNAME;
+        DocStore.write( filename, docNames.keySet(), new DocStore.Source() {
+            public String name( int docID ) { return docNames.get( docID ); }
+            public Integer length( int docID ) { return docLengths.get( docID ); }
+            public Double norm( int docID ) { return euclideanLength.get( docID ); }
+            public Double pageRank( int docID ) { return pageRank.get( docID ); }
+        });
+        docStore = new DocStore( filename );
+    }
+
+
     /**
      *  Reads the document names and document lengths from file, and
      *  put them in the appropriate data structures.
@@ -238,36 +418,57 @@ public class PersistentHashedIndex implements Index {
      *  Write the index to files.
      */
     public void writeIndex() {
-        int collisions = 0;
+        int maxDisplacement = 0;
         try {
             // Write the 'docNames' and 'docLengths' hash maps to a file
             writeDocInfo();
-
-            // Write the dictionary and the postings list
+            writeDocStore();
+
+            // The files are about to change
+            dictionaryMap = null;
+            dataMap = null;
+            hashDictionary = null;
+            if (cache != null) {
+                cache.clear();
+            }
+            if (sortedDictionary != null) {
+                sortedDictionary.close();
+                sortedDictionary = null;
+            }
+            ArrayList<SortedTermDictionary.TermEntry> sortedEntries = new ArrayList<>();
+            HashDictionary.Builder dictionary = new HashDictionary.Builder();
+
+            binary = true;
+            version = PostingsCodec.VERSION;
+            size_dict = 16;
+            // Nothing of an earlier index should be left in the files
+            dictionaryFile.setLength(0);
+            dataFile.setLength(0);
+            dataFile.seek(0);
+            dataFile.writeInt(PostingsCodec.MAGIC);
+            dataFile.writeInt(PostingsCodec.VERSION);
+
+            // Write the postings lists in one sequential pass, and collect
+            // the dictionary entries
+            RecordWriter writer = new RecordWriter(dataFile, PostingsCodec.HEADER_SIZE);
             for (Map.Entry<String, PostingsList> pair : index.entrySet()) {
                 String key = pair.getKey();
                 PostingsList value = pair.getValue();
-                String data = key + "*" + value.toString();
-                int bytesRead = writeData(data, free);
-                if (bytesRead <= 0) continue;
-                Entry entry = new Entry(free, bytesRead);
-                free += bytesRead+1;
-
-                long hash = hashcode(key);
-
-                Entry position = readEntry(hash);
-                while (position != null && position.ptr != 0) {
-                    hash += size_dict;
-                    collisions += 1;
-                    position = readEntry(hash);
-                }
-                writeEntry(entry, hash);
-                //System.err.println(entry.collisions);
+                byte[] data = codec.encode(key, value);
+                int size = codec.size();
+                long ptr = writer.write(data, size);
+                dictionary.add(key.getBytes(StandardCharsets.UTF_8), ptr, size, TermStats.of(value));
+                sortedEntries.add(new SortedTermDictionary.TermEntry(key, ptr, size));
             }
+            writer.flush();
+            free = writer.free();
+            // The table is only sized and filled once all terms are known
+            maxDisplacement = dictionary.write(INDEXDIR + "/" + DICTIONARY_FNAME);
+            SortedTermDictionary.write(INDEXDIR + "/" + TERMS_FNAME, sortedEntries);
         } catch ( IOException e ) {
             e.printStackTrace();
         }
-        System.err.println( collisions + " collisions." );
+        System.err.println( "Longest probe: " + maxDisplacement + " slots from home." );
     }
 
 
@@ -279,11 +480,89 @@ public class PersistentHashedIndex implements Index {
      *  if the term is not in the index.
      */
     public PostingsList getPostings( String token ) {
+        if (memoryMapped && dataMap == null) {
+            mapFiles(dictionaryFile, dataFile);
+        }
+        if (!binary) {
+            return getTextPostings(token);
+        }
+        byte[] data = cache == null ? null : cache.get(token);
+        if (data == null) {
+            data = readRecord(token);
+            if (cache != null) {
+                cache.put(token, data == null ? PostingsCache.ABSENT : data);
+            }
+        }
+        return (data == null || data.length == 0) ? null : PostingsCodec.decode(data);
+    }
+
+    /**
+     *  Finds the binary record of a term, or returns null if the term is
+     *  not in the index.
+     */
+    byte[] readRecord( String token ) {
+        if (sortedLookups && (sortedDictionary != null || openSortedDictionary())) {
+            SortedTermDictionary.TermEntry entry = sortedDictionary.get(token);
+            return entry == null ? null : readBytes(entry.ptr, entry.size);
+        }
+        byte[] term = token.getBytes(StandardCharsets.UTF_8);
+        if (version >= 3) {
+            if (hashDictionary == null && !openHashDictionary()) return null;
+            byte[][] found = new byte[1][];
+            HashDictionary.Slot slot = hashDictionary.lookup(term, (ptr, size) -> {
+                byte[] data = readBytes(ptr, size);
+                found[0] = data;
+                return PostingsCodec.hasTerm(data, term);
+            });
+            return slot == null ? null : found[0];
+        }
+        int fingerprint = PostingsCodec.fingerprint(term);
+        long pointer = hashcode(token);
+        while (true) {
+            Entry entry = readEntry(pointer);
+            if (entry == null || entry.ptr == 0) break;
+            // Only read the record if it can be the right term
+            if (size_dict < 16 || entry.fingerprint == fingerprint) {
+                byte[] data = readBytes(entry.ptr, entry.size);
+                if (PostingsCodec.hasTerm(data, term)) {
+                    return data;
+                }
+            }
+            pointer += size_dict;
+        }
+        return null;
+    }
+
+    /**
+     *  Returns the statistics of a term from its dictionary slot. Only the
+     *  start of the record is read, to check that it is the term.
+     */
+    public TermStats termStats( String token ) {
+        if (memoryMapped && dataMap == null) {
+            mapFiles(dictionaryFile, dataFile);
+        }
+        if (!binary || version < 3
+            || (hashDictionary == null && !openHashDictionary()) || !hashDictionary.hasStats()) {
+            return Index.super.termStats(token);
+        }
+        byte[] term = token.getBytes(StandardCharsets.UTF_8);
+        HashDictionary.Slot slot = hashDictionary.lookup(term, (ptr, size) -> {
+            // The length of the term is a varint of at most 5 bytes
+            byte[] data = readBytes(ptr, Math.min(size, term.length + 5));
+            return data != null && PostingsCodec.hasTerm(data, term);
+        });
+        return slot == null ? null : slot.stats;
+    }
+
+    /**
+     *  Returns the postings for a term from a data file in the old text format.
+     */
+    PostingsList getTextPostings( String token ) {
         long pointer = hashcode(token);
         int coll = 0;
         while (true) {
             Entry entry = readEntry(pointer);
-            if (entry.ptr == 0) break;
+            if (entry == null || entry.ptr == 0) break;
             String data = readData(entry.ptr, entry.size);
             String[] info = data.split("\\*");
             String word = info[0];
@@ -296,6 +575,118 @@ public class PersistentHashedIndex implements Index {
         return null;
     }
 
+    /**
+     *  Returns the terms starting with <code>prefix</code>, from the sorted 
+     *  dictionary, or null if there is none (e.g. for an index in the old 
+     *  text format).
+     */
+    public List<String> prefixTerms( String prefix ) {
+        if (!binary || !openSortedDictionary()) {
+            return null;
+        }
+        ArrayList<String> terms = new ArrayList<>();
+        Iterator<SortedTermDictionary.TermEntry> it = sortedDictionary.prefix(prefix);
+        while (it.hasNext()) {
+            terms.add(it.next().term);
+        }
+        return terms;
+    }
+
+    /**
+     *  Opens the hashed dictionary of a version 3 index if it is not open yet.
+     *
+     *  @return false if the dictionary file is not in that format.
+     */
+    private synchronized boolean openHashDictionary() {
+        if (hashDictionary == null) {
+            try {
+                hashDictionary = new HashDictionary(dictionaryFile, memoryMapped);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     *  Opens the sorted dictionary if it is not open yet.
+     *
+     *  @return false if there is no sorted dictionary.
+     */
+    private synchronized boolean openSortedDictionary() {
+        if (sortedDictionary == null) {
+            File file = new File(INDEXDIR + "/" + TERMS_FNAME);
+            if (!file.exists()) return false;
+            try {
+                sortedDictionary = new SortedTermDictionary(file.getPath());
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int numberOfDocs() {
+        DocStore store = docStore;
+        return store != null ? store.size() : docNames.size();
+    }
+
+    public Iterable<Integer> docIDs() {
+        DocStore store = docStore;
+        return store != null ? store.docIDs() : docNames.keySet();
+    }
+
+    public String docName( int docID ) {
+        DocStore store = docStore;
+        return store != null ? store.name( docID ) : docNames.get( docID );
+    }
+
+    public Integer docLength( int docID ) {
+        DocStore store = docStore;
+        return store != null ? store.length( docID ) : docLengths.get( docID );
+    }
+
+    public Double docNorm( int docID ) {
+        DocStore store = docStore;
+        return store != null ? store.norm( docID ) : euclideanLength.get( docID );
+    }
+
+    public double docPageRank( int docID ) {
+        DocStore store = docStore;
+        if ( store != null && store.hasPageRank() ) {
+            Double rank = store.pageRank( docID );
+            return rank == null ? 0. : rank;
+        }
+        return pageRank.getOrDefault( docID, 0. );
+    }
+
+    public boolean hasStoredPageRank() {
+        DocStore store = docStore;
+        return store != null && store.hasPageRank();
+    }
+
+    /**
+     *  Writes the doc store again, with the pageranks now in the pageRank map.
+     */
+    public void storePageRank() {
+        final DocStore store = docStore;
+        if ( store == null || pageRank.isEmpty() ) return;
+        try {
+            String filename = INDEXDIR + "/" + DOCSTORE_FNAME;
+            DocStore.write( filename, store.docIDs(), new DocStore.Source() {
+                public String name( int docID ) { return store.name( docID ); }
+                public Integer length( int docID ) { return store.length( docID ); }
+                public Double norm( int docID ) { return store.norm( docID ); }
+                public Double pageRank( int docID ) { return pageRank.get( docID ); }
+            });
+            docStore = new DocStore( filename );
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
+    }
+
     public PostingsList getPostingsMemory( String token ) {
         return index.get(token);
     }
@@ -1,9 +1,17 @@
 package ir;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class PersistentScalableHashedIndex extends PersistentHashedIndex {
 
@@ -26,15 +34,59 @@ public class PersistentScalableHashedIndex extends PersistentHashedIndex {
 
     public static int totalTokensProcessed = 0;
 
-    /** The dictionary hash table is stored in this file. */
-    RandomAccessFile dictionaryFileFinal;
+    /** The dictionary hash table is stored in this file. Set once all final files are open. */
+    volatile RandomAccessFile dictionaryFileFinal;
 
     /** The data (the PostingsLists) are stored in this file. */
     RandomAccessFile dataFileFinal;
 
+    /** Positional readers of the final files, for lookups from many threads. */
+    ChannelReader dictionaryReaderFinal;
+    ChannelReader dataReaderFinal;
+
     /** The cache as a main-memory hash map. */
     TreeMap<String,PostingsList> index = new TreeMap<>();
 
+    /** How the current batch is inverted before it is written as a run. */
+    InversionType inversionType = InversionType.TREE_MAP;
+
+    /** Number of triples the sort-based inverter holds before a run is written. */
+    int sortBufferCapacity = SortBasedInverter.DEFAULT_CAPACITY;
+
+    /** Number of off-heap blocks the off-heap inverter may use before a run is written. */
+    int offHeapBlocks = OffHeapInverter.DEFAULT_MAX_BLOCKS;
+
+    /** The current batch when <code>inversionType</code> is not TREE_MAP. */
+    Inverter inverter;
+
+    /**
+     *  If <code>true</code>, a full batch is handed to a background writer and
+     *  indexing continues into a second buffer while the run is written and merged.
+     *  The writer itself waits in <code>startMerge</code> for the previous merge,
+     *  so if a merge takes longer than filling a batch, the indexer still waits
+     *  for it, at the flush after the next one.
+     */
+    boolean backgroundFlush = false;
+
+    /** The second buffer, in use by the background writer or ready to be swapped in. */
+    Inverter spareInverter;
+
+    /** The background writer, created on the first flush. */
+    ExecutorService writer;
+
+    /** The run currently being written in the background, if any. */
+    Future<?> pendingWrite;
+
+    /**
+     *  If <code>true</code>, the final dictionary is written as a minimal
+     *  perfect hash function (see PerfectHashDictionary). It is smaller and
+     *  every lookup reads one slot, but it cannot be added to.
+     */
+    boolean perfectHash = false;
+
+    /** The final dictionary if it is a perfect hash, opened on the first lookup. */
+    PerfectHashDictionary perfectDictionary;
+
     public Merge merge;
 
     public static class Pair {
@@ -135,7 +187,7 @@ public class PersistentScalableHashedIndex extends PersistentHashedIndex {
             long posM = 0;
             long pos1_old = -1;
             long posM_old = -1;
-            long freeD = 0;
+            RecordWriter writer = new RecordWriter(destination, 0);
             PersistentScalableHashedIndex.Pair data1 = new PersistentScalableHashedIndex.Pair();
             PersistentScalableHashedIndex.Pair data2 = new PersistentScalableHashedIndex.Pair();
             int deb = 0;
@@ -157,32 +209,27 @@ public class PersistentScalableHashedIndex extends PersistentHashedIndex {
                 if (token1.equals(token2)) {
                     String posting = mergePostingList(posting1, posting2);
 
-                    int bytesWritten = writeDataWithLength(token1+"*"+posting, freeD, destination);
-                    if (bytesWritten <= 0) continue;
-                    freeD += bytesWritten+1;
+                    writer.writeWithLength(token1+"*"+posting);
 
                     pos1 += data1.size + 1;
                     posM += data2.size + 1;
                 } else if (token1.compareTo(token2) < 0) {
-                    int bytesWritten = writeDataWithLength(data1.data, freeD, destination);
-                    if (bytesWritten <= 0) continue;
-                    freeD += bytesWritten+1;
+                    writer.writeWithLength(data1.data);
                     pos1 += data1.size + 1;
 
                 } else {
-                    int bytesWritten = writeDataWithLength(data2.data, freeD, destination);
-                    if (bytesWritten <= 0) continue;
-                    freeD += bytesWritten+1;
+                    writer.writeWithLength(data2.data);
                     posM += data2.size + 1;
                 }
                 ++deb;
             }
 
             if (pos1 < datafile.length()) {
-                appendDataFiles(datafile, destination, pos1, freeD);
+                appendDataFiles(datafile, writer, pos1);
             } else if (posM < datafileM.length()) {
-                appendDataFiles(datafileM, destination, posM, freeD);
+                appendDataFiles(datafileM, writer, posM);
             }
+            writer.flush();
 
             System.err.println( "Merge done!" );
             datafile.close();
@@ -195,15 +242,14 @@ public class PersistentScalableHashedIndex extends PersistentHashedIndex {
 
         }
 
-        private void appendDataFiles(RandomAccessFile datafile, RandomAccessFile destination, long pos, long freeD) {
+        private void appendDataFiles(RandomAccessFile datafile, RecordWriter writer, long pos) {
             try {
                 datafile.seek(pos);
                 int size = (int) (datafile.length() - pos);
                 byte[] data = new byte[size];
                 datafile.readFully( data );
 
-                destination.seek(freeD);
-                destination.write(data);
+                writer.write(data, size);
             } catch ( IOException e ) {
                 e.printStackTrace();
             }
@@ -212,6 +258,9 @@ public class PersistentScalableHashedIndex extends PersistentHashedIndex {
 
 
     public PersistentScalableHashedIndex() {
+        // The parent constructor opened the doc store of the other index
+        // directory; this index keeps its documents in the maps
+        docStore = null;
         try {
             readDocInfo();
         } catch ( FileNotFoundException e ) {
@@ -220,8 +269,22 @@ public class PersistentScalableHashedIndex extends PersistentHashedIndex {
         }
     }
 
+    public PersistentScalableHashedIndex(InversionType inversionType) {
+        this();
+        this.inversionType = inversionType;
+    }
 
-    private void writeDocInfo() throws IOException {
+    /**
+     *  @param memoryMapped If true, the final dictionary and data files are
+     *         mapped into memory for lookups.
+     */
+    public PersistentScalableHashedIndex(InversionType inversionType, boolean memoryMapped) {
+        this(inversionType);
+        this.memoryMapped = memoryMapped;
+    }
+
+
+    private void writeDocInfo(Map<Integer,String> docNames, Map<Integer,Integer> docLengths) throws IOException {
         FileOutputStream fout = new FileOutputStream( INDEXDIR + "/docInfo", true );
         for (Map.Entry<Integer,String> entry : docNames.entrySet()) {
             Integer key = entry.getKey();
@@ -286,27 +349,42 @@ public class PersistentScalableHashedIndex extends PersistentHashedIndex {
         }
     }
 
-    public void writeIndexToDatafile() {
-        String name;
+    /**
+     *  Name of the data file the next run is written to.
+     */
+    private String runName() {
         if (filesWritten == 0) {
             // this is the first time
-            name = DATA_FNAME + "M" + mergeStep;
-        } else name = DATA_FNAME + mergeStep;
+            return DATA_FNAME + "M" + mergeStep;
+        } else return DATA_FNAME + mergeStep;
+    }
 
+    public void writeIndexToDatafile() {
+        writeRun(runName(), index, inverter, docNames, docLengths);
+    }
+
+    /**
+     *  Writes one batch to the data file <code>name</code> as a run sorted by term.
+     */
+    private void writeRun(String name, TreeMap<String,PostingsList> batch, Inverter inverter,
+                          Map<Integer,String> docNames, Map<Integer,Integer> docLengths) {
         try {
             RandomAccessFile dataFile = new RandomAccessFile( INDEXDIR + "/" + name, "rw" );
             // Write the 'docNames' and 'docLengths' hash maps to a file
-            writeDocInfo();
+            writeDocInfo(docNames, docLengths);
 
             // Write the dictionary and the postings list
-            for (Map.Entry<String, PostingsList> pair : index.entrySet()) {
+            long free = 0;
+            if (inverter != null) {
+                free = inverter.writeRun(dataFile);
+            }
+            RecordWriter writer = new RecordWriter(dataFile, free);
+            for (Map.Entry<String, PostingsList> pair : batch.entrySet()) {
                 String key = pair.getKey();
                 PostingsList value = pair.getValue();
-                String data = key + "*" + value.toString();
-                int bytesWritten = writeDataWithLength(data, free, dataFile);
-                if (bytesWritten <= 0) continue;
-                free += bytesWritten+1;
+                writer.writeWithLength(key + "*" + value.toString());
             }
+            writer.flush();
             dataFile.close();
         } catch (IOException e) {
             e.printStackTrace();
@@ -320,29 +398,98 @@ public class PersistentScalableHashedIndex extends PersistentHashedIndex {
             new File(INDEXDIR + "/" + DICTIONARY_FNAME).delete();
             new File( INDEXDIR + "/docInfo").delete();
         }
-        writeIndexToDatafile();
         totalTokensProcessed += index.size();
+        if (inverter != null) {
+            totalTokensProcessed += inverter.numberOfTerms();
+        }
         System.err.println("Total number of tokens " + totalTokensProcessed);
-        index.clear();
+        if (backgroundFlush) {
+            flushInBackground();
+        } else {
+            writeIndexToDatafile();
+            if (inverter != null) {
+                inverter.clear();
+            }
+            index.clear();
+            docLengths.clear();
+            docNames.clear();
+            if (filesWritten != 0) {
+                startMerge(++mergeStep);
+            }
+        }
+        number_of_tokens_treated = 0;
+        filesWritten++;
+    }
+
+    /**
+     *  Swaps in a fresh buffer and lets the background writer write the full
+     *  one. Only one run is written at a time, so if the previous run is not
+     *  done yet we wait for it before swapping.
+     */
+    private void flushInBackground() {
+        waitForPendingWrite();
+
+        final String name = runName();
+        final int step = (filesWritten != 0) ? ++mergeStep : 0;
+        final TreeMap<String,PostingsList> batch = index;
+        final Inverter batchInverter = inverter;
+        final HashMap<Integer,String> names = new HashMap<>(docNames);
+        final HashMap<Integer,Integer> lengths = new HashMap<>(docLengths);
+
+        index = new TreeMap<>();
+        if (batchInverter != null) {
+            inverter = (spareInverter != null) ? spareInverter : newInverter();
+            spareInverter = batchInverter;
+        }
         docLengths.clear();
         docNames.clear();
-        number_of_tokens_treated = 0;
-        free = 0;
-        if (filesWritten != 0) {
-            ++mergeStep;
-            System.err.println( "lets merge!" );
 
-            if (mergeStep != 1) {
-                try {
-                    merge.join();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+        if (writer == null) {
+            writer = Executors.newSingleThreadExecutor();
+        }
+        pendingWrite = writer.submit(() -> {
+            writeRun(name, batch, batchInverter, names, lengths);
+            if (batchInverter != null) {
+                batchInverter.clear();
+            }
+            if (step != 0) {
+                startMerge(step);
+            }
+        });
+    }
+
+    private void waitForPendingWrite() {
+        if (pendingWrite == null) return;
+        try {
+            pendingWrite.get();
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        }
+        pendingWrite = null;
+    }
+
+    /**
+     *  Merges the run written for <code>step-1</code> into the merged file,
+     *  after the previous merge is done.
+     */
+    private void startMerge(int step) {
+        System.err.println( "lets merge!" );
+        if (merge != null) {
+            try {
+                merge.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
             }
-            merge = new Merge(mergeStep);
-            merge.start();
         }
-        filesWritten++;
+        merge = new Merge(step);
+        merge.start();
+    }
+
+    private Inverter newInverter() {
+        if (inversionType == InversionType.OFF_HEAP) {
+            return new OffHeapInverter(offHeapBlocks);
+        }
+        return new SortBasedInverter(sortBufferCapacity);
     }
 
     public PostingsList getPostingsMemory( String token ) {
@@ -363,6 +510,20 @@ public class PersistentScalableHashedIndex extends PersistentHashedIndex {
     }
 
     public void insert(String token, int docID, int offset) {
+        if (inversionType != InversionType.TREE_MAP) {
+            if (inverter == null) {
+                inverter = newInverter();
+            }
+            if (inverter.insert(token, docID, offset)) {
+                System.err.println( "Inversion buffer full, start write." );
+                try {
+                    handle();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            return;
+        }
         number_of_tokens_treated += insertToIndex(token, docID, offset);
         if (number_of_tokens_treated == MAX_TOKENS) {
             System.err.println( "Reach max tokens, start write." );
@@ -396,49 +557,152 @@ public class PersistentScalableHashedIndex extends PersistentHashedIndex {
 
     private void writeDictionaryFile() throws IOException {
         RandomAccessFile datafile = new RandomAccessFile( INDEXDIR + "/" + DATA_FNAME, "r" );
-        RandomAccessFile dictionaryFileFinal = new RandomAccessFile( INDEXDIR + "/" + DICTIONARY_FNAME, "rw" );
+        HashDictionary.Builder dictionary = new HashDictionary.Builder();
+        PerfectHashDictionary.Builder perfectDictionary = perfectHash ? new PerfectHashDictionary.Builder() : null;
 
-        // do the merge to destination
         long pos = 0;
         while (pos < datafile.length()) {
             Pair data = readData(pos, datafile);
             String token = data.data.split("\\*")[0];
-
-            Entry entry = new Entry(pos);
-            long hash = hashcode(token);
-
-            Entry position = readEntry(hash, dictionaryFileFinal);
-            while (position != null && position.ptr != 0) {
-                hash += size_dict;
-                position = readEntry(hash, dictionaryFileFinal);
+            byte[] term = token.getBytes(StandardCharsets.UTF_8);
+            if (perfectDictionary != null) {
+                perfectDictionary.add(term, pos);
+            } else {
+                dictionary.add(term, pos, data.size, textStats(data.data, token.length() + 1));
             }
-            writeEntry(entry, hash, dictionaryFileFinal);
             pos += data.size + 1;
         }
-        dictionaryFileFinal.close();
+        datafile.close();
+        if (perfectDictionary != null) {
+            perfectDictionary.write(INDEXDIR + "/" + DICTIONARY_FNAME);
+            return;
+        }
+        int maxDisplacement = dictionary.write(INDEXDIR + "/" + DICTIONARY_FNAME);
+        System.err.println("Longest probe: " + maxDisplacement + " slots from home.");
+    }
+
+    /**
+     *  The statistics of the postings in the text format, which start at
+     *  <code>start</code> in <code>data</code>: entries "docID:offset,offset"
+     *  separated by '-'. The postings are only scanned, not parsed.
+     */
+    static TermStats textStats(String data, int start) {
+        int df = 1;
+        long cf = 0;
+        int maxTf = 0;
+        int tf = 1;
+        for (int i=start; i<data.length(); i++) {
+            char c = data.charAt(i);
+            if (c == ',') {
+                tf++;
+            } else if (c == '-') {
+                cf += tf;
+                maxTf = Math.max(maxTf, tf);
+                df++;
+                tf = 1;
+            }
+        }
+        cf += tf;
+        maxTf = Math.max(maxTf, tf);
+        return new TermStats(df, cf, maxTf);
+    }
 
+    /**
+     *  Returns the statistics of a term from its dictionary slot. Only the
+     *  start of the record, up to the term, is read to check that it is the
+     *  term. A perfect hash dictionary has no statistics, so the postings
+     *  are read then.
+     */
+    public TermStats termStats( String token ) {
+        if (dictionaryFileFinal == null) {
+            openFinalFiles();
+            if (dictionaryFileFinal == null) return null;
+        }
+        if (hashDictionary == null || !hashDictionary.hasStats()) {
+            return TermStats.of(getPostings(token));
+        }
+        // The records are written in the default charset, see writeDataWithLength
+        byte[] term = (token + "*").getBytes();
+        HashDictionary.Slot slot = hashDictionary.lookup(token.getBytes(StandardCharsets.UTF_8), (ptr, size) -> {
+            byte[] data = readFinalBytes(ptr + 4, Math.min(size - 4, term.length));
+            return data != null && Arrays.equals(data, term);
+        });
+        return slot == null ? null : slot.stats;
     }
 
     public PostingsList getPostings( String token ) {
         if (dictionaryFileFinal == null) {
-            try {
-                dictionaryFileFinal = new RandomAccessFile( INDEXDIR + "/" + DICTIONARY_FNAME, "r" );
-                dataFileFinal = new RandomAccessFile( INDEXDIR + "/" + DATA_FNAME, "r" );
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
+            openFinalFiles();
+            if (dictionaryFileFinal == null) return null;
+        }
+        byte[] postings = cache == null ? null : cache.get(token);
+        if (postings == null) {
+            String text = readPostingsText(token);
+            postings = text == null ? PostingsCache.ABSENT : text.getBytes(StandardCharsets.UTF_8);
+            if (cache != null) {
+                cache.put(token, postings);
+            }
+        }
+        return postings.length == 0 ? null : new PostingsList(new String(postings, StandardCharsets.UTF_8));
+    }
+
+    /**
+     *  Opens the final dictionary and data files, and the dictionary in the
+     *  format it was written in, if not done yet.
+     */
+    private synchronized void openFinalFiles() {
+        if (dictionaryFileFinal != null) return;
+        try {
+            RandomAccessFile dictionary = new RandomAccessFile( INDEXDIR + "/" + DICTIONARY_FNAME, "r" );
+            dataFileFinal = new RandomAccessFile( INDEXDIR + "/" + DATA_FNAME, "r" );
+            dictionaryReaderFinal = new ChannelReader(dictionary);
+            dataReaderFinal = new ChannelReader(dataFileFinal);
+            mapFiles(dictionary, dataFileFinal);
+            if (PerfectHashDictionary.isPerfectHashDictionary(dictionary)) {
+                perfectDictionary = new PerfectHashDictionary(dictionary, memoryMapped);
+            } else if (HashDictionary.isHashDictionary(dictionary)) {
+                hashDictionary = new HashDictionary(dictionary, memoryMapped);
             }
+            dictionaryFileFinal = dictionary;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     *  Finds the record of a term in the final data file, and returns its
+     *  postings in the text format, or null if the term is not in the index.
+     */
+    private String readPostingsText(String token) {
+        if (perfectDictionary != null) {
+            Pair[] found = new Pair[1];
+            long ptr = perfectDictionary.lookup(token.getBytes(StandardCharsets.UTF_8), p -> {
+                found[0] = readFinalData(p);
+                return found[0] != null && found[0].data.startsWith(token + "*");
+            });
+            return ptr < 0 ? null : found[0].data.substring(token.length() + 1);
+        }
+        if (hashDictionary != null) {
+            Pair[] found = new Pair[1];
+            HashDictionary.Slot slot = hashDictionary.lookup(token.getBytes(StandardCharsets.UTF_8), (ptr, size) -> {
+                found[0] = readFinalData(ptr);
+                return found[0] != null && found[0].data.startsWith(token + "*");
+            });
+            return slot == null ? null : found[0].data.substring(token.length() + 1);
         }
+        // A dictionary written before the HashDictionary format
         long pointer = hashcode(token);
         int coll = 0;
         while (true) {
-            Entry entry = readEntry(pointer, dictionaryFileFinal);
-            if (entry.ptr == 0) break;
-            Pair data = readData(entry.ptr, dataFileFinal);
+            Entry entry = readFinalEntry(pointer);
+            if (entry == null || entry.ptr == 0) break;
+            Pair data = readFinalData(entry.ptr);
+            if (data == null) break;
             String[] info = data.data.split("\\*");
             String word = info[0];
             if (word.equals(token)) {
                 System.out.println(coll);
-                return new PostingsList(info[1]);
+                return info[1];
             }
             ++coll;
             pointer += size_dict;
@@ -447,11 +711,78 @@ public class PersistentScalableHashedIndex extends PersistentHashedIndex {
         return null;
     }
 
+    /**
+     *  Reads an entry of the final dictionary, from the memory map if there is one.
+     */
+    private Entry readFinalEntry(long ptr) {
+        if (dictionaryMap == null) {
+            try {
+                return new Entry(dictionaryReaderFinal.readLong(ptr));
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        if (ptr + 8 > dictionaryMap.length()) return null;
+        return new Entry(dictionaryMap.getLong(ptr));
+    }
+
+    /**
+     *  Reads a record of the final data file, from the memory map if there is one.
+     *  Returns null if the record cannot be read.
+     */
+    private Pair readFinalData(long ptr) {
+        if (dataMap == null) {
+            try {
+                byte[] data = new byte[dataReaderFinal.readInt(ptr)];
+                dataReaderFinal.read(ptr + 4, data);
+                return new Pair(new String(data), data.length + 4);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+        int size = dataMap.getInt(ptr);
+        byte[] data = new byte[size];
+        dataMap.get(ptr + 4, data);
+        return new Pair(new String(data), size + 4);
+    }
+
+    /**
+     *  Reads bytes of the final data file, from the memory map if there is one.
+     */
+    private byte[] readFinalBytes(long ptr, int size) {
+        byte[] data = new byte[size];
+        if (dataMap != null) {
+            dataMap.get(ptr, data);
+            return data;
+        }
+        try {
+            dataReaderFinal.read(ptr, data);
+            return data;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     *  The scalable index has no sorted dictionary.
+     */
+    public List<String> prefixTerms( String token ) {
+        return null;
+    }
+
     public void cleanup() {
         System.err.println( "clean up... ");
         try {
             handle();
-            merge.join();
+            waitForPendingWrite();
+            if (writer != null) {
+                writer.shutdown();
+            }
+            if (merge != null) {
+                merge.join();
+            }
             new File(INDEXDIR + "/" + DATA_FNAME + "M" + mergeStep).renameTo(new File(INDEXDIR + "/" + DATA_FNAME));
             System.err.println("Creating dictionary file");
             long startTime = System.currentTimeMillis();
@@ -0,0 +1,205 @@
+package ir;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *  A cache of the postings records of a persistent index, bounded by the
+ *  number of bytes it holds rather than by the number of terms.
+ *
+ *  The records are kept as they are read from the data file, so the size of
+ *  an entry is known exactly and a cached list takes far less memory than a
+ *  decoded PostingsList. Terms that are not in the index are cached as an
+ *  empty record.
+ *
+ *  Each shard is a segmented LRU: a term enters the probation segment, and
+ *  only moves to the protected segment (80% of the budget) when it is hit
+ *  again. A scan over many terms that are used once thus only pushes other
+ *  one-off terms out of the cache, not the frequent ones. The terms are
+ *  spread over a few independently locked shards, so that concurrent
+ *  queries seldom wait for each other.
+ */
+public class PostingsCache {
+
+    /** Marks a term that is not in the index. */
+    public static final byte[] ABSENT = new byte[0];
+
+    /** Number of shards, a power of two. */
+    static final int SHARDS = 8;
+
+    /** Estimated bytes used by an entry besides its term and record. */
+    static final int ENTRY_OVERHEAD = 96;
+
+    private final Shard[] shards = new Shard[SHARDS];
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+
+    /**
+     *  @param maxBytes The number of bytes the cache may hold.
+     */
+    public PostingsCache( long maxBytes ) {
+        for ( int i=0; i<SHARDS; i++ ) {
+            shards[i] = new Shard( maxBytes / SHARDS );
+        }
+    }
+
+
+    /**
+     *  Returns the cached record of a term, <code>ABSENT</code> if the term is
+     *  known not to be in the index, or null if the term is not cached.
+     */
+    public byte[] get( String term ) {
+        byte[] record = shard( term ).get( term );
+        if ( record == null ) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return record;
+    }
+
+    /**
+     *  Caches the record of a term, or <code>ABSENT</code>.
+     */
+    public void put( String term, byte[] record ) {
+        shard( term ).put( term, record );
+    }
+
+    /** Empties the cache, e.g. when the index is written again. */
+    public void clear() {
+        for ( Shard shard : shards ) {
+            shard.clear();
+        }
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    /** The fraction of lookups that were found in the cache. */
+    public double hitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    /** Number of bytes held by the cache. */
+    public long bytes() {
+        long bytes = 0;
+        for ( Shard shard : shards ) {
+            bytes += shard.bytes();
+        }
+        return bytes;
+    }
+
+    public String toString() {
+        return String.format( "Postings cache: %d hits, %d misses (hit ratio %.1f%%), %d KB used",
+                              hits(), misses(), 100 * hitRatio(), bytes() >> 10 );
+    }
+
+    private Shard shard( String term ) {
+        int h = term.hashCode();
+        return shards[( h ^ ( h >>> 16 )) & ( SHARDS - 1 )];
+    }
+
+    static long size( String term, byte[] record ) {
+        return ENTRY_OVERHEAD + 2L * term.length() + record.length;
+    }
+
+
+    // ==================================================================
+
+
+    /**
+     *  One segmented LRU. Both segments are LinkedHashMaps in access order,
+     *  so their first entry is the least recently used one.
+     */
+    static class Shard {
+
+        final LinkedHashMap<String,byte[]> probation = new LinkedHashMap<>( 16, 0.75f, true );
+        final LinkedHashMap<String,byte[]> protectedSegment = new LinkedHashMap<>( 16, 0.75f, true );
+
+        final long maxBytes;
+        final long maxProtectedBytes;
+        long probationBytes = 0;
+        long protectedBytes = 0;
+
+        Shard( long maxBytes ) {
+            this.maxBytes = maxBytes;
+            this.maxProtectedBytes = maxBytes * 4 / 5;
+        }
+
+        synchronized byte[] get( String term ) {
+            byte[] record = protectedSegment.get( term );
+            if ( record != null ) {
+                return record;
+            }
+            record = probation.remove( term );
+            if ( record != null ) {
+                // Hit a second time: promote
+                long size = size( term, record );
+                probationBytes -= size;
+                protectedSegment.put( term, record );
+                protectedBytes += size;
+                demote();
+            }
+            return record;
+        }
+
+        synchronized void put( String term, byte[] record ) {
+            long size = size( term, record );
+            if ( size > maxBytes || protectedSegment.containsKey( term )) {
+                return;
+            }
+            byte[] old = probation.put( term, record );
+            if ( old != null ) {
+                probationBytes -= size( term, old );
+            }
+            probationBytes += size;
+            evict();
+        }
+
+        /** Moves the least recently used protected entries back to probation. */
+        private void demote() {
+            Iterator<Map.Entry<String,byte[]>> it = protectedSegment.entrySet().iterator();
+            while ( protectedBytes > maxProtectedBytes && it.hasNext() ) {
+                Map.Entry<String,byte[]> e = it.next();
+                it.remove();
+                long size = size( e.getKey(), e.getValue() );
+                protectedBytes -= size;
+                probation.put( e.getKey(), e.getValue() );
+                probationBytes += size;
+            }
+            evict();
+        }
+
+        /** Drops the least recently used probation entries until the shard fits. */
+        private void evict() {
+            Iterator<Map.Entry<String,byte[]>> it = probation.entrySet().iterator();
+            while ( probationBytes + protectedBytes > maxBytes && it.hasNext() ) {
+                Map.Entry<String,byte[]> e = it.next();
+                it.remove();
+                probationBytes -= size( e.getKey(), e.getValue() );
+            }
+        }
+
+        synchronized long bytes() {
+            return probationBytes + protectedBytes;
+        }
+
+        synchronized void clear() {
+            probation.clear();
+            protectedSegment.clear();
+            probationBytes = 0;
+            protectedBytes = 0;
+        }
+    }
+}
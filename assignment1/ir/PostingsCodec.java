@@ -0,0 +1,162 @@
+package ir;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ *  The binary record format of the persistent index. A record is
+ *
+ *    term length, UTF-8 term bytes, number of documents, and for every 
+ *    document: docID gap, number of positions, position gaps
+ *
+ *  with every number but the term bytes written as a varint (7 bits per 
+ *  byte, least significant first, high bit set on all but the last byte).
+ *  The gaps are the differences to the previous docID or position in the 
+ *  list; the first ones are written as they are.
+ *
+ *  Records are decoded straight from the bytes read from the data file,
+ *  without going through Strings.
+ */
+public class PostingsCodec {
+
+    /** Marks a data file in this format. Text data files start with a term. */
+    public static final int MAGIC = 0x00495242;
+
+    /**
+     *  Version of the index format.
+     *    1: binary records; dictionary slots hold pointer and size.
+     *    2: slots also hold a fingerprint of the term.
+     *    3: the dictionary is a self-sized HashDictionary with its own header.
+     */
+    public static final int VERSION = 3;
+
+    /** Size of the data file header (magic and version). */
+    public static final int HEADER_SIZE = 8;
+
+
+    /** The record being encoded. */
+    private byte[] out = new byte[256];
+    private int size = 0;
+
+
+    /** Encodes one record. The returned array is reused by the next call. */
+    public byte[] encode( String term, PostingsList postings ) {
+        size = 0;
+        byte[] termBytes = term.getBytes( StandardCharsets.UTF_8 );
+        writeVarint( termBytes.length );
+        ensure( termBytes.length );
+        System.arraycopy( termBytes, 0, out, size, termBytes.length );
+        size += termBytes.length;
+        writeVarint( postings.size() );
+        int lastDocID = 0;
+        for ( int i=0; i<postings.size(); i++ ) {
+            PostingsEntry entry = postings.get( i );
+            writeVarint( entry.docID - lastDocID );
+            lastDocID = entry.docID;
+            writeVarint( entry.offsets.size() );
+            int lastOffset = 0;
+            for ( int offset : entry.offsets ) {
+                writeVarint( offset - lastOffset );
+                lastOffset = offset;
+            }
+        }
+        return out;
+    }
+
+    /** Length of the record last encoded. */
+    public int size() {
+        return size;
+    }
+
+    private void writeVarint( int n ) {
+        ensure( 5 );
+        while (( n & ~0x7f ) != 0 ) {
+            out[size++] = (byte) (( n & 0x7f ) | 0x80 );
+            n >>>= 7;
+        }
+        out[size++] = (byte) n;
+    }
+
+    private void ensure( int n ) {
+        if ( size + n > out.length ) {
+            out = Arrays.copyOf( out, Math.max( 2*out.length, size+n ));
+        }
+    }
+
+
+    // ==================================================================
+
+
+    /**
+     *  A 32-bit fingerprint of a term (FNV-1a over its UTF-8 bytes). It is
+     *  independent of the String hash code that picks the dictionary slot,
+     *  so terms that collide on the slot almost never share a fingerprint.
+     */
+    public static int fingerprint( byte[] term ) {
+        int h = 0x811c9dc5;
+        for ( byte b : term ) {
+            h ^= b & 0xff;
+            h *= 0x01000193;
+        }
+        return h;
+    }
+
+
+    /**
+     *  Returns true if the record at <code>data[0..]</code> is for the 
+     *  term with the given UTF-8 bytes.
+     */
+    public static boolean hasTerm( byte[] data, byte[] term ) {
+        int[] pos = { 0 };
+        int length = readVarint( data, pos );
+        if ( length != term.length ) {
+            return false;
+        }
+        return Arrays.equals( data, pos[0], pos[0] + length, term, 0, length );
+    }
+
+    /** Returns the term of the record at <code>data[0..]</code>. */
+    public static String term( byte[] data ) {
+        int[] pos = { 0 };
+        int length = readVarint( data, pos );
+        return new String( data, pos[0], length, StandardCharsets.UTF_8 );
+    }
+
+    /** Decodes the postings of the record at <code>data[0..]</code>. */
+    public static PostingsList decode( byte[] data ) {
+        int[] pos = { 0 };
+        int length = readVarint( data, pos );
+        pos[0] += length;
+        int n = readVarint( data, pos );
+        PostingsList postings = new PostingsList();
+        int docID = 0;
+        for ( int i=0; i<n; i++ ) {
+            docID += readVarint( data, pos );
+            int tf = readVarint( data, pos );
+            ArrayList<Integer> offsets = new ArrayList<>( tf );
+            int offset = 0;
+            for ( int j=0; j<tf; j++ ) {
+                offset += readVarint( data, pos );
+                offsets.add( offset );
+            }
+            postings.addEntry( new PostingsEntry( docID, offsets ));
+        }
+        return postings;
+    }
+
+    /** Reads a varint at <code>data[pos[0]]</code> and moves <code>pos[0]</code> past it. */
+    static int readVarint( byte[] data, int[] pos ) {
+        int p = pos[0];
+        int n = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[p++];
+            n |= ( b & 0x7f ) << shift;
+            shift += 7;
+        } while ( b < 0 );
+        pos[0] = p;
+        return n;
+    }
+}
@@ -69,6 +69,26 @@ public class Query {
     }
     
     
+    /**
+     *  Creates a new Query from a string of words, running every word through
+     *  the same token filters as the indexed documents. Words that are
+     *  dropped by the filters are left out. Wildcard terms are kept as
+     *  they are.
+     */
+    public Query( String queryString, Analyzer analyzer ) {
+        StringTokenizer tok = new StringTokenizer( queryString );
+        while ( tok.hasMoreTokens() ) {
+            String term = tok.nextToken();
+            if ( !term.contains( "*" )) {
+                term = analyzer.filter( term );
+            }
+            if ( term != null ) {
+                queryterm.add( new QueryTerm(term, 1.0) );
+            }
+        }
+    }
+
+
     /**
      *  Returns the number of terms
      */
@@ -112,7 +132,7 @@ public class Query {
 
         HashMap<String, Double> query = new HashMap<>();
 
-        String patterns_file = engine.patterns_file;
+        Analyzer analyzer = engine.analyzer;
         int number_relevant = 0;
 
         for (boolean b : docIsRelevant) {
@@ -124,11 +144,11 @@ public class Query {
         for (int i = 0; i < docIsRelevant.length; ++i) {
             if (!docIsRelevant[i]) continue;
             int docId = results.get(i).docID;
-            String path = engine.index.docNames.get(docId);
+            String path = engine.index.docName(docId);
             if (path.equals("..\\davisWiki\\Math.f")) {
                 path = "..\\davisWiki\\Mathematics.f";
             }
-            processFile(query, path, patterns_file, number_relevant);
+            processFile(query, path, analyzer, number_relevant);
             ++cont;
             if (cont == number_relevant) break;
         }
@@ -143,13 +163,15 @@ public class Query {
         }
     }
 
-    private void processFile(HashMap<String, Double> query, String path, String patterns_file, int N) {
+    private void processFile(HashMap<String, Double> query, String path, Analyzer analyzer, int N) {
 
         try {
             Reader reader = new InputStreamReader( new FileInputStream(path), StandardCharsets.UTF_8 );
-            Tokenizer tok = new Tokenizer( reader, true, false, true, patterns_file );
+            Tokenizer tok = analyzer.tokenizer( reader );
             while ( tok.hasMoreTokens() ) {
-                String token = tok.nextToken();
+                CharSlice slice = tok.nextTokenSlice();
+                if ( !analyzer.filter( slice )) continue;
+                String token = slice.toString();
                 Double score = query.get(token);
                 if (score == null) {
                     score = beta * (1. / N);
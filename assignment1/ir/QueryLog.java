@@ -0,0 +1,143 @@
+package ir;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *  Counts how often each term is searched for, and keeps the counts in a
+ *  file from one run of the engine to the next.
+ *
+ *  When a persistent index is opened again, its mapped pages are not in
+ *  memory and its postings cache is empty, so the first searches all wait
+ *  for the disk. <code>warmUp</code> looks up the terms that were searched
+ *  for most often, which reads their dictionary slots and records and puts
+ *  them in the cache, before the searches come.
+ *
+ *  File format: one line "count term" per term, most frequent first.
+ */
+public class QueryLog {
+
+    final String filename;
+
+    final ConcurrentHashMap<String,LongAdder> counts = new ConcurrentHashMap<>();
+
+
+    /**
+     *  Reads the counts saved in <code>filename</code>, if there is such a file.
+     */
+    public QueryLog( String filename ) {
+        this.filename = filename;
+        if ( !new File( filename ).exists() ) {
+            return;
+        }
+        try ( BufferedReader in = new BufferedReader( new FileReader( filename ))) {
+            String line;
+            while (( line = in.readLine() ) != null ) {
+                String[] data = line.split( " ", 2 );
+                if ( data.length == 2 ) {
+                    counts.computeIfAbsent( data[1], t -> new LongAdder() ).add( Long.parseLong( data[0] ));
+                }
+            }
+        } catch ( IOException | NumberFormatException e ) {
+            e.printStackTrace();
+        }
+    }
+
+
+    /** Counts a term that is searched for. */
+    public void record( String term ) {
+        counts.computeIfAbsent( term, t -> new LongAdder() ).increment();
+    }
+
+    /** Counts the terms of a query. */
+    public void record( Query query ) {
+        for ( Query.QueryTerm q : query.queryterm ) {
+            record( q.term );
+        }
+    }
+
+    /** Number of different terms in the log. */
+    public int size() {
+        return counts.size();
+    }
+
+    /** The <code>n</code> terms searched for most often, most frequent first. */
+    public List<String> topTerms( int n ) {
+        ArrayList<String> terms = new ArrayList<>();
+        for ( Map.Entry<String,Long> e : sorted() ) {
+            if ( terms.size() == n ) break;
+            terms.add( e.getKey() );
+        }
+        return terms;
+    }
+
+    private List<Map.Entry<String,Long>> sorted() {
+        ArrayList<Map.Entry<String,Long>> entries = new ArrayList<>( counts.size() );
+        for ( Map.Entry<String,LongAdder> e : counts.entrySet() ) {
+            entries.add( Map.entry( e.getKey(), e.getValue().sum() ));
+        }
+        entries.sort( ( a, b ) -> Long.compare( b.getValue(), a.getValue() ));
+        return entries;
+    }
+
+
+    /**
+     *  Writes the counts to the file. The file is written next to it and
+     *  then moved in place, so a run that is stopped half-way does not
+     *  lose the earlier counts.
+     */
+    public void save() {
+        String tmp = filename + ".tmp";
+        try ( PrintWriter out = new PrintWriter( tmp )) {
+            for ( Map.Entry<String,Long> e : sorted() ) {
+                out.println( e.getValue() + " " + e.getKey() );
+            }
+        } catch ( IOException e ) {
+            e.printStackTrace();
+            return;
+        }
+        try {
+            Files.move( Paths.get( tmp ), Paths.get( filename ), StandardCopyOption.REPLACE_EXISTING );
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     *  Looks up the <code>n</code> most frequent terms in <code>index</code>,
+     *  several at a time on <code>executor</code>, and waits until all are done.
+     *
+     *  @return the number of terms that were found in the index.
+     */
+    public int warmUp( Index index, int n, Executor executor ) {
+        ArrayList<CompletableFuture<PostingsList>> fetches = new ArrayList<>();
+        for ( String term : topTerms( n )) {
+            if ( !term.contains( "*" )) {
+                fetches.add( index.getPostingsAsync( term, executor ));
+            }
+        }
+        int found = 0;
+        for ( CompletableFuture<PostingsList> f : fetches ) {
+            try {
+                if ( f.join() != null ) found++;
+            } catch ( RuntimeException e ) {
+                e.printStackTrace();
+            }
+        }
+        return found;
+    }
+}
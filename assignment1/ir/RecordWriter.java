@@ -0,0 +1,95 @@
+package ir;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+/**
+ *  Appends records to a data file in one sequential pass through a large
+ *  buffer, instead of seeking to every record.
+ *
+ *  The records are laid out as the indexes have always done it: each record
+ *  starts one byte after the end of the previous one, and that byte is 0.
+ *  The file itself is not closed by this writer.
+ */
+public class RecordWriter {
+
+    /** Size of the write buffer. */
+    public static final int BUFFER_SIZE = 1 << 20;
+
+    DataOutputStream out;
+
+    /** Position in the file of the next byte written. */
+    long written;
+
+    /** Pointer to where the next record starts. */
+    long free;
+
+
+    /**
+     *  @param ptr Where the first record is written. Anything in the file
+     *         from there on is overwritten.
+     */
+    public RecordWriter( RandomAccessFile file, long ptr ) throws IOException {
+        FileChannel channel = file.getChannel();
+        channel.position( ptr );
+        out = new DataOutputStream( new BufferedOutputStream( Channels.newOutputStream( channel ), BUFFER_SIZE ));
+        written = ptr;
+        free = ptr;
+    }
+
+
+    /**
+     *  Writes the first <code>length</code> bytes of <code>data</code> as a record.
+     *
+     *  @return The pointer to the record.
+     */
+    public long write( byte[] data, int length ) throws IOException {
+        long ptr = pad();
+        out.write( data, 0, length );
+        written += length;
+        free = written + 1;
+        return ptr;
+    }
+
+
+    /**
+     *  Writes a string as a record preceded by its length in bytes, like
+     *  <code>PersistentScalableHashedIndex.writeDataWithLength</code>.
+     *
+     *  @return The number of bytes written.
+     */
+    public int writeWithLength( String dataString ) throws IOException {
+        byte[] data = dataString.getBytes();
+        pad();
+        out.writeInt( data.length );
+        out.write( data );
+        written += 4 + data.length;
+        free = written + 1;
+        return data.length + 4;
+    }
+
+
+    /** Pointer to where the next record starts. */
+    public long free() {
+        return free;
+    }
+
+
+    /** Writes out the buffer. */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+
+    private long pad() throws IOException {
+        while ( written < free ) {
+            out.write( 0 );
+            written++;
+        }
+        return written;
+    }
+}
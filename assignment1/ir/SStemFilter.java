@@ -0,0 +1,42 @@
+package ir;
+
+/**
+ *  A light stemmer that only conflates English plurals with their singular
+ *  forms (Harman's "S" stemmer):
+ *
+ *    -ies -> -y   (unless -aies or -eies)
+ *    -es  -> -e   (unless -aes, -ees, -ies or -oes)
+ *    -s   -> ""   (unless -us or -ss)
+ *
+ *  The first matching rule is used, and an exception leaves the word as
+ *  it is. The token is changed in place.
+ */
+public class SStemFilter implements TokenFilter {
+
+    public boolean accept( CharSlice token ) {
+        int n = token.length;
+        if ( n < 3 || token.charAt( n-1 ) != 's' ) {
+            return true;
+        }
+        switch ( token.charAt( n-2 )) {
+        case 'u':
+        case 's':
+            return true;
+        case 'e':
+            char c3 = token.charAt( n-3 );
+            if ( n > 3 && c3 == 'i' && token.charAt( n-4 ) != 'a' && token.charAt( n-4 ) != 'e' ) {
+                token.chars[token.offset + n-3] = 'y';
+                token.setLength( n-2 );
+                return true;
+            }
+            if ( c3 == 'i' || c3 == 'a' || c3 == 'o' || c3 == 'e' ) {
+                return true;
+            }
+            token.setLength( n-1 );
+            return true;
+        default:
+            token.setLength( n-1 );
+            return true;
+        }
+    }
+}
@@ -157,11 +157,17 @@ public class SearchGUI extends JFrame {
          */
         Action search = new AbstractAction() {
             public void actionPerformed( ActionEvent e ) {
+                // The search box is disabled during the warm-up, but an
+                // event may have been queued before that
+                if ( engine.warmingUp ) {
+                    return;
+                }
                 // Empty the results window
                 displayInfoText( " " );
                 // Turn the search string into a Query
                 String queryString = queryWindow.getText().toLowerCase().trim();
-                query = new Query( queryString );
+                query = new Query( queryString, engine.analyzer );
+                engine.queryLog.record( query );
                 // Take relevance feedback from the user into account (assignment 3)
                 // Check which documents the user has marked as relevant.
                 if ( box != null ) {
@@ -172,12 +178,15 @@ public class SearchGUI extends JFrame {
                     }
                     query.relevanceFeedback( results, relevant, engine );
                 }
-                // Search and print results. Access to the index is synchronized since
-                // we don't want to search at the same time we're indexing new files
-                // (this might corrupt the index).
+                // Search and print results. The read lock is taken since we don't
+                // want to search at the same time we're indexing new files (this
+                // might corrupt the index), but other searches may run alongside.
                 long startTime = System.currentTimeMillis();
-                synchronized ( engine.indexLock ) {
+                engine.indexLock.readLock().lock();
+                try {
                     results = engine.searcher.search( query, queryType, rankingType, normType );
+                } finally {
+                    engine.indexLock.readLock().unlock();
                 }
                 long elapsedTime = System.currentTimeMillis() - startTime;
                 // Display the first few results + a button to see all results.
@@ -314,7 +323,7 @@ public class SearchGUI extends JFrame {
         box = new JCheckBox[maxResultsToDisplay];
         int i;
         for ( i=0; i<results.size() && i<maxResultsToDisplay; i++ ) {
-            String description = i + ". " + displayableFileName( engine.index.docNames.get( results.get(i).docID ));
+            String description = i + ". " + displayableFileName( engine.index.docName( results.get(i).docID ));
             if ( queryType == QueryType.RANKED_QUERY ) {
                 description += "   " + String.format( "%.5f", results.get(i).score );
             }
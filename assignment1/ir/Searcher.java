@@ -11,6 +11,10 @@ package ir;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static java.lang.Math.abs;
 
@@ -37,6 +41,16 @@ public class Searcher {
     static double Widf = 0.6;
     static double Wpr = 0.4;
 
+    /** Number of postings lookups that may wait for the disk at the same time. */
+    static final int FETCH_THREADS = 8;
+
+    /** Runs the postings lookups of the query terms concurrently. */
+    static final ExecutorService fetcher = Executors.newFixedThreadPool( FETCH_THREADS, r -> {
+        Thread t = new Thread( r, "postings-fetch" );
+        t.setDaemon( true );
+        return t;
+    });
+
     /**
      * Constructor
      */
@@ -53,17 +67,38 @@ public class Searcher {
 
     private ArrayList<PostingsList> processQuery(Query query, QueryType queryType) {
         ArrayList<PostingsList> postingsLists = new ArrayList<>();
-        WildCardSearch wildCardSearch = new WildCardSearch(index, kgIndex, query, queryType);
+        WildCardSearch wildCardSearch = new WildCardSearch(index, kgIndex, query, queryType, fetcher);
 
+        // Expand the wildcard terms, then start the lookups of all terms and
+        // expanded words at once, so that they wait for the disk together
+        ArrayList<List<CompletableFuture<PostingsList>>> fetches = new ArrayList<>();
         for (Query.QueryTerm q : query.queryterm) {
+            ArrayList<CompletableFuture<PostingsList>> termFetches = new ArrayList<>();
+            if (q.term.contains("*")) {
+                for (String word : wildCardSearch.expand(q.term)) {
+                    termFetches.add(index.getPostingsAsync(word, fetcher));
+                }
+            } else {
+                termFetches.add(index.getPostingsAsync(q.term, fetcher));
+            }
+            fetches.add(termFetches);
+        }
+
+        for (int i = 0; i < query.queryterm.size(); ++i) {
+            Query.QueryTerm q = query.queryterm.get(i);
             String term = q.term;
             if (term.contains("*")) {
-                PostingsList p = wildCardSearch.wilcardWord(term);
+                ArrayList<PostingsList> words = new ArrayList<>();
+                for (CompletableFuture<PostingsList> fetch : fetches.get(i)) {
+                    PostingsList postingsList = fetch.join();
+                    if (postingsList != null) words.add(postingsList);
+                }
+                PostingsList p = wildCardSearch.combine(words);
                 if (p != null) postingsLists.add(p);
                 else postingsLists.addAll(wildCardSearch.queryPostings);
                 continue;
             }
-            PostingsList post = index.getPostings(term);
+            PostingsList post = fetches.get(i).get(0).join();
             if (post == null) {
                 postingsLists.add(null);
             } else {
@@ -274,7 +309,7 @@ public class Searcher {
 
     private void calculatePageRank(PostingsList postingsList) {
         for (PostingsEntry postingsEntry : postingsList.getList()) {
-            postingsEntry.score = index.pageRank.getOrDefault(postingsEntry.docID, 0.);
+            postingsEntry.score = index.docPageRank(postingsEntry.docID);
         }
     }
 
@@ -289,16 +324,16 @@ public class Searcher {
     }
 
     private void calculateTfIdf(PostingsList postingsList, NormalizationType normalizationType) {
-        int N = index.docNames.size();
+        int N = index.numberOfDocs();
         int df = postingsList.size();
         double idf = Math.log((double) N / df);
         for (PostingsEntry postingsEntry : postingsList.getList()) {
             int tf = postingsEntry.offsets.size();
             double lend;
             if (normalizationType.equals(NormalizationType.EUCLIDEAN)) {
-                lend = index.euclideanLength.get(postingsEntry.docID);
+                lend = index.docNorm(postingsEntry.docID);
             }
-            else lend = Double.valueOf(index.docLengths.get(postingsEntry.docID));
+            else lend = Double.valueOf(index.docLength(postingsEntry.docID));
             double score = calculate_tf_idf(lend, tf, idf);
             postingsEntry.score = score * postingsList.weight;
         }
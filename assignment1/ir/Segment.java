@@ -0,0 +1,224 @@
+package ir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *  One segment of a SegmentedIndex: the postings and document information
+ *  of the documents indexed in one batch, or of the segments merged into it.
+ *  A segment is written once and never changed; it is only deleted, once it
+ *  has been merged into a larger one and no search uses it any more.
+ *
+ *  A segment is made of four files, all named after the segment:
+ *    .data   the postings records, in the PostingsCodec format
+ *    .dict   a HashDictionary of the records, for lookups
+ *    .terms  a SortedTermDictionary of the records, for prefixes and for
+ *            reading the terms in order when segments are merged
+ *    .docs   a DocStore of the documents in the segment
+ */
+public class Segment {
+
+    public static final String DATA_EXT = ".data";
+    public static final String DICTIONARY_EXT = ".dict";
+    public static final String TERMS_EXT = ".terms";
+    public static final String DOCS_EXT = ".docs";
+
+    static final String[] EXTENSIONS = { DATA_EXT, DICTIONARY_EXT, TERMS_EXT, DOCS_EXT };
+
+
+    final String dir;
+    final String name;
+
+    RandomAccessFile dataFile;
+    RandomAccessFile dictionaryFile;
+    ChannelReader dataReader;
+    HashDictionary dictionary;
+    SortedTermDictionary terms;
+    DocStore docs;
+
+    /** Size of the postings, which the merge policy goes by. */
+    final long bytes;
+
+    /**
+     *  Number of users of the segment: one for the index while the segment
+     *  is live, and one for each search that is reading it.
+     */
+    final AtomicInteger refs = new AtomicInteger( 1 );
+
+    /** Set when the segment has been merged away; its files are deleted once unused. */
+    volatile boolean obsolete = false;
+
+
+    /**
+     *  Opens a segment written by <code>write</code>.
+     */
+    public Segment( String dir, String name ) throws IOException {
+        this.dir = dir;
+        this.name = name;
+        dataFile = new RandomAccessFile( path( DATA_EXT ), "r" );
+        dictionaryFile = new RandomAccessFile( path( DICTIONARY_EXT ), "r" );
+        dataReader = new ChannelReader( dataFile );
+        dictionary = new HashDictionary( dictionaryFile, false );
+        terms = new SortedTermDictionary( path( TERMS_EXT ));
+        docs = new DocStore( path( DOCS_EXT ));
+        bytes = dataFile.length();
+    }
+
+
+    String path( String ext ) {
+        return dir + "/" + name + ext;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public long bytes() {
+        return bytes;
+    }
+
+    public int numberOfDocs() {
+        return docs.size();
+    }
+
+    public int numberOfTerms() {
+        return terms.size();
+    }
+
+    public String toString() {
+        return name + " (" + numberOfDocs() + " docs, " + ( bytes >> 10 ) + " KB)";
+    }
+
+
+    /**
+     *  Returns the postings of a term in this segment, or null if the term
+     *  does not occur in it.
+     */
+    public PostingsList getPostings( String token ) {
+        byte[] term = token.getBytes( StandardCharsets.UTF_8 );
+        byte[][] found = new byte[1][];
+        HashDictionary.Slot slot = dictionary.lookup( term, ( ptr, size ) -> {
+            found[0] = readRecord( ptr, size );
+            return found[0] != null && PostingsCodec.hasTerm( found[0], term );
+        });
+        return slot == null ? null : PostingsCodec.decode( found[0] );
+    }
+
+    /**
+     *  Returns the statistics of a term in this segment, or null if the term
+     *  does not occur in it. Only the start of the record is read.
+     */
+    public TermStats termStats( String token ) {
+        byte[] term = token.getBytes( StandardCharsets.UTF_8 );
+        HashDictionary.Slot slot = dictionary.lookup( term, ( ptr, size ) -> {
+            // The length of the term is a varint of at most 5 bytes
+            byte[] data = readRecord( ptr, Math.min( size, term.length + 5 ));
+            return data != null && PostingsCodec.hasTerm( data, term );
+        });
+        return slot == null ? null : slot.stats;
+    }
+
+    /** The terms of the segment starting with <code>prefix</code>, in order. */
+    public Iterator<SortedTermDictionary.TermEntry> prefix( String prefix ) {
+        return terms.prefix( prefix );
+    }
+
+    /** Decodes the postings of a term listed by <code>prefix</code>. */
+    public PostingsList getPostings( SortedTermDictionary.TermEntry entry ) throws IOException {
+        byte[] data = new byte[entry.size];
+        dataReader.read( entry.ptr, data );
+        return PostingsCodec.decode( data );
+    }
+
+    byte[] readRecord( long ptr, int size ) {
+        try {
+            byte[] data = new byte[size];
+            dataReader.read( ptr, data );
+            return data;
+        } catch ( IOException e ) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+
+    /** Takes a reference to the segment, which must not be closed yet. */
+    void incRef() {
+        refs.incrementAndGet();
+    }
+
+    /**
+     *  Gives back a reference. The last one closes the segment, and deletes
+     *  its files if it has been merged away.
+     */
+    void decRef() {
+        if ( refs.decrementAndGet() == 0 ) {
+            close();
+            if ( obsolete ) {
+                delete( dir, name );
+            }
+        }
+    }
+
+    void close() {
+        try {
+            dataFile.close();
+            dictionaryFile.close();
+            terms.close();
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Deletes the files of a segment. */
+    static void delete( String dir, String name ) {
+        for ( String ext : EXTENSIONS ) {
+            new File( dir + "/" + name + ext ).delete();
+        }
+    }
+
+
+    // ==================================================================
+
+
+    /**
+     *  Writes a segment. The records are written in the order the terms
+     *  come in, in one sequential pass.
+     *
+     *  @param postings The terms and their postings, the docIDs of each
+     *         list in increasing order.
+     *  @param docIDs The documents of the segment.
+     *  @param source The information about the documents.
+     */
+    public static void write( String dir, String name, Iterator<Map.Entry<String,PostingsList>> postings,
+                              Iterable<Integer> docIDs, DocStore.Source source ) throws IOException {
+        PostingsCodec codec = new PostingsCodec();
+        HashDictionary.Builder dictionary = new HashDictionary.Builder();
+        ArrayList<SortedTermDictionary.TermEntry> sortedEntries = new ArrayList<>();
+
+        try ( RandomAccessFile dataFile = new RandomAccessFile( dir + "/" + name + DATA_EXT, "rw" )) {
+            dataFile.setLength( 0 );
+            dataFile.writeInt( PostingsCodec.MAGIC );
+            dataFile.writeInt( PostingsCodec.VERSION );
+            RecordWriter writer = new RecordWriter( dataFile, PostingsCodec.HEADER_SIZE );
+            while ( postings.hasNext() ) {
+                Map.Entry<String,PostingsList> e = postings.next();
+                byte[] data = codec.encode( e.getKey(), e.getValue() );
+                int size = codec.size();
+                long ptr = writer.write( data, size );
+                dictionary.add( e.getKey().getBytes( StandardCharsets.UTF_8 ), ptr, size, TermStats.of( e.getValue() ));
+                sortedEntries.add( new SortedTermDictionary.TermEntry( e.getKey(), ptr, size ));
+            }
+            writer.flush();
+        }
+        dictionary.write( dir + "/" + name + DICTIONARY_EXT );
+        SortedTermDictionary.write( dir + "/" + name + TERMS_EXT, sortedEntries );
+        DocStore.write( dir + "/" + name + DOCS_EXT, docIDs, source );
+    }
+}
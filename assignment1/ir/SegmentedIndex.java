@@ -0,0 +1,629 @@
+package ir;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ *  A persistent index made of immutable segments (see Segment).
+ *
+ *  The postings of the documents being indexed are collected in memory and
+ *  written as a new segment once there are <code>MAX_TOKENS</code> of them,
+ *  at the start of the next document, so that a document is never split
+ *  over two segments. The segments that make up the index are listed in
+ *  the commit point file, which is written anew and moved in place every
+ *  time a segment is added or segments are merged. The index on disk is thus
+ *  always the one of the last commit, and files of segments that were never
+ *  committed are deleted when the index is opened again.
+ *
+ *  A TieredMergePolicy picks segments of similar size to merge, and they
+ *  are merged on a background thread while indexing and searching go on. A
+ *  search looks up the term in every segment and joins the postings. The
+ *  segments a search reads stay open until it is done, even if they have
+ *  been merged away in the meantime.
+ *
+ *  The euclidean lengths depend on the whole collection, so they are not
+ *  kept in the segments; they are computed over all segments once indexing
+ *  is done, and kept in euclidean.txt like in the other indexes.
+ *
+ *  Commit point file: the number of the next segment on the first line,
+ *  then one line "name documents bytes" per segment.
+ */
+public class SegmentedIndex implements Index {
+
+    /** The directory where the segments are stored. */
+    public static final String INDEXDIR = "./index_segments";
+
+    /** The commit point file. */
+    public static final String COMMIT_FNAME = "segments";
+
+    /** The names of the segment files start with this. */
+    public static final String SEGMENT_PREFIX = "seg";
+
+    /** Default number of tokens collected in memory before they are written as a segment. */
+    public static final int MAX_TOKENS = 1000000;
+
+
+    /** The postings of the documents that are not in a segment yet. */
+    TreeMap<String,PostingsList> buffer = new TreeMap<>();
+
+    int bufferedTokens = 0;
+
+    /** The buffer is written as a segment once it holds this many tokens. */
+    int maxBufferedTokens = MAX_TOKENS;
+
+    /** The document the last token was inserted for. */
+    int lastDocID = -1;
+
+    /** The first docID that is not in a segment yet. */
+    int flushedUpTo = 0;
+
+    /** The live segments, oldest first. The list is replaced, never changed. */
+    volatile List<Segment> segments = new ArrayList<>();
+
+    /** Number of the next segment written. */
+    int nextSegment = 0;
+
+    /** The segments that are being merged. */
+    final HashSet<Segment> merging = new HashSet<>();
+
+    TieredMergePolicy mergePolicy = new TieredMergePolicy();
+
+    /** Runs the merges, one at a time. */
+    final ExecutorService merger = Executors.newSingleThreadExecutor( r -> {
+        Thread t = new Thread( r, "segment-merge" );
+        t.setDaemon( true );
+        return t;
+    });
+
+
+    /**
+     *  Opens the index of the last commit, if there is one.
+     */
+    public SegmentedIndex() {
+        new File( INDEXDIR ).mkdirs();
+        try {
+            readCommit();
+            deleteUncommittedFiles();
+            File euclidean = new File( INDEXDIR + "/euclidean.txt" );
+            if ( euclidean.exists() ) {
+                readEuclideanLength( euclidean );
+            }
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
+        maybeMerge();
+    }
+
+
+    /**
+     *  Reads the commit point file and opens its segments.
+     */
+    private void readCommit() throws IOException {
+        File file = new File( INDEXDIR + "/" + COMMIT_FNAME );
+        if ( !file.exists() ) return;
+        ArrayList<Segment> list = new ArrayList<>();
+        try ( BufferedReader br = new BufferedReader( new FileReader( file ))) {
+            nextSegment = Integer.parseInt( br.readLine().trim() );
+            String line;
+            while (( line = br.readLine() ) != null ) {
+                String[] data = line.split( " " );
+                list.add( new Segment( INDEXDIR, data[0] ));
+            }
+        }
+        segments = list;
+        System.err.println( "Opened " + list.size() + " segments: " + list );
+    }
+
+    /**
+     *  Writes the commit point file for the live segments. It is written
+     *  next to the old one and then moved in place.
+     */
+    private synchronized void writeCommit() throws IOException {
+        String tmp = INDEXDIR + "/" + COMMIT_FNAME + ".tmp";
+        try ( PrintWriter out = new PrintWriter( tmp )) {
+            out.println( nextSegment );
+            for ( Segment s : segments ) {
+                out.println( s.name() + " " + s.numberOfDocs() + " " + s.bytes() );
+            }
+        }
+        Files.move( Paths.get( tmp ), Paths.get( INDEXDIR + "/" + COMMIT_FNAME ), StandardCopyOption.REPLACE_EXISTING );
+    }
+
+    /**
+     *  Deletes the files of segments that are not in the commit, e.g. of a
+     *  merge that was not done when the engine was stopped.
+     */
+    private void deleteUncommittedFiles() {
+        HashSet<String> live = new HashSet<>();
+        for ( Segment s : segments ) {
+            live.add( s.name() );
+        }
+        File[] files = new File( INDEXDIR ).listFiles();
+        if ( files == null ) return;
+        for ( File f : files ) {
+            String name = f.getName();
+            int dot = name.indexOf( '.' );
+            if ( name.startsWith( SEGMENT_PREFIX ) && dot > 0 && !live.contains( name.substring( 0, dot ))) {
+                f.delete();
+            }
+        }
+    }
+
+    private void readEuclideanLength( File file ) throws IOException {
+        try ( BufferedReader br = new BufferedReader( new FileReader( file ))) {
+            String line;
+            while (( line = br.readLine() ) != null ) {
+                String[] data = line.split( ":" );
+                euclideanLength.put( Integer.parseInt( data[0] ), Double.parseDouble( data[1] ));
+            }
+        }
+    }
+
+
+    /**
+     *  Drops all segments, so that the index is built anew.
+     */
+    public synchronized void clear() {
+        List<Segment> old = segments;
+        segments = new ArrayList<>();
+        buffer = new TreeMap<>();
+        bufferedTokens = 0;
+        lastDocID = -1;
+        flushedUpTo = 0;
+        euclideanLength.clear();
+        new File( INDEXDIR + "/euclidean.txt" ).delete();
+        try {
+            writeCommit();
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
+        for ( Segment s : old ) {
+            s.obsolete = true;
+            s.decRef();
+        }
+    }
+
+
+    // ==================================================================
+
+
+    /**
+     *  Inserts a token in the in-memory buffer. When the buffer is full, it
+     *  is written as a segment before the first token of the next document.
+     */
+    public void insert( String token, int docID, int offset ) {
+        if ( docID != lastDocID ) {
+            if ( bufferedTokens >= maxBufferedTokens ) {
+                flush( docID );
+            }
+            lastDocID = docID;
+        }
+        PostingsList postingsList = buffer.get( token );
+        if ( postingsList == null ) {
+            postingsList = new PostingsList();
+            buffer.put( token, postingsList );
+        }
+        postingsList.addEntry( docID, offset );
+        bufferedTokens++;
+    }
+
+    /** One more than the largest docID that is not in a segment yet. */
+    private int endOfBuffer() {
+        int end = lastDocID + 1;
+        for ( int docID : docNames.keySet() ) {
+            end = Math.max( end, docID + 1 );
+        }
+        return end;
+    }
+
+    /**
+     *  Writes the buffer, and the documents from <code>flushedUpTo</code> up
+     *  to <code>end</code>, as a new segment, and commits it.
+     */
+    private void flush( int end ) {
+        ArrayList<Integer> docIDs = new ArrayList<>();
+        for ( int docID : docNames.keySet() ) {
+            if ( docID >= flushedUpTo && docID < end ) {
+                docIDs.add( docID );
+            }
+        }
+        if ( docIDs.isEmpty() && buffer.isEmpty() ) return;
+        Collections.sort( docIDs );
+        String name = newSegmentName();
+        long startTime = System.currentTimeMillis();
+        try {
+            Segment.write( INDEXDIR, name, buffer.entrySet().iterator(), docIDs, new DocStore.Source() {
+                public String name( int docID ) { return docNames.get( docID ); }
+                public Integer length( int docID ) { return docLengths.get( docID ); }
+                public Double norm( int docID ) { return null; }
+                public Double pageRank( int docID ) { return null; }
+            });
+            Segment segment = new Segment( INDEXDIR, name );
+            synchronized ( this ) {
+                ArrayList<Segment> list = new ArrayList<>( segments );
+                list.add( segment );
+                segments = list;
+                writeCommit();
+            }
+            long elapsedTime = System.currentTimeMillis() - startTime;
+            System.err.println( "Wrote segment " + segment + " in " + elapsedTime/1000.0 + "s" );
+        } catch ( IOException e ) {
+            e.printStackTrace();
+            Segment.delete( INDEXDIR, name );
+            return;
+        }
+        // The documents are in the segment now
+        for ( int docID : docIDs ) {
+            docNames.remove( docID );
+            docLengths.remove( docID );
+        }
+        buffer = new TreeMap<>();
+        bufferedTokens = 0;
+        flushedUpTo = end;
+        maybeMerge();
+    }
+
+    private synchronized String newSegmentName() {
+        return SEGMENT_PREFIX + nextSegment++;
+    }
+
+
+    /**
+     *  Starts a merge in the background if the merge policy finds one.
+     */
+    private synchronized void maybeMerge() {
+        List<Segment> toMerge = mergePolicy.findMerge( segments, merging );
+        if ( toMerge == null ) return;
+        merging.addAll( toMerge );
+        // The merge reads the segments even if the index is cleared meanwhile
+        for ( Segment s : toMerge ) {
+            s.incRef();
+        }
+        String name = newSegmentName();
+        merger.submit( () -> merge( toMerge, name ));
+    }
+
+    /**
+     *  Merges segments into a new segment named <code>name</code>, and
+     *  commits the new segment in their place.
+     */
+    private void merge( List<Segment> toMerge, String name ) {
+        long startTime = System.currentTimeMillis();
+        ArrayList<Integer> docIDs = new ArrayList<>();
+        for ( Segment s : toMerge ) {
+            docIDs.addAll( s.docs.docIDs() );
+        }
+        Collections.sort( docIDs );
+        try {
+            Segment.write( INDEXDIR, name, new MergedTerms( toMerge ), docIDs, new DocStore.Source() {
+                public String name( int docID ) { return docs( toMerge, docID ).name( docID ); }
+                public Integer length( int docID ) { return docs( toMerge, docID ).length( docID ); }
+                public Double norm( int docID ) { return null; }
+                public Double pageRank( int docID ) { return null; }
+            });
+            Segment merged = new Segment( INDEXDIR, name );
+            if ( replace( toMerge, merged )) {
+                long elapsedTime = System.currentTimeMillis() - startTime;
+                System.err.println( "Merged " + toMerge + " into " + merged + " in " + elapsedTime/1000.0 + "s" );
+            }
+        } catch ( IOException | UncheckedIOException e ) {
+            e.printStackTrace();
+            Segment.delete( INDEXDIR, name );
+            synchronized ( this ) {
+                merging.removeAll( toMerge );
+            }
+        } finally {
+            for ( Segment s : toMerge ) {
+                s.decRef();
+            }
+        }
+        maybeMerge();
+    }
+
+    /**
+     *  Puts the merged segment in the place of the segments it was merged
+     *  from, and commits.
+     *
+     *  @return false if those segments were dropped meanwhile, in which case
+     *          the merged segment is dropped too.
+     */
+    private synchronized boolean replace( List<Segment> toMerge, Segment merged ) throws IOException {
+        merging.removeAll( toMerge );
+        if ( !segments.containsAll( toMerge )) {
+            merged.obsolete = true;
+            merged.decRef();
+            return false;
+        }
+        ArrayList<Segment> list = new ArrayList<>();
+        for ( Segment s : segments ) {
+            if ( s == toMerge.get( 0 )) {
+                list.add( merged );
+            } else if ( !toMerge.contains( s )) {
+                list.add( s );
+            }
+        }
+        segments = list;
+        writeCommit();
+        for ( Segment s : toMerge ) {
+            s.obsolete = true;
+            s.decRef();
+        }
+        return true;
+    }
+
+    private static DocStore docs( List<Segment> segments, int docID ) {
+        for ( Segment s : segments ) {
+            if ( s.docs.contains( docID )) return s.docs;
+        }
+        return null;
+    }
+
+
+    /**
+     *  Takes a reference to each live segment, so that none is closed while
+     *  it is read. The references are given back by <code>release</code>.
+     */
+    private synchronized List<Segment> acquire() {
+        List<Segment> snapshot = segments;
+        for ( Segment s : snapshot ) {
+            s.incRef();
+        }
+        return snapshot;
+    }
+
+    private void release( List<Segment> snapshot ) {
+        for ( Segment s : snapshot ) {
+            s.decRef();
+        }
+    }
+
+
+    // ==================================================================
+
+
+    /**
+     *  Returns the postings of a term in all segments, or null if the term
+     *  is in none of them.
+     */
+    public PostingsList getPostings( String token ) {
+        List<Segment> snapshot = acquire();
+        try {
+            ArrayList<PostingsList> lists = new ArrayList<>();
+            for ( Segment s : snapshot ) {
+                PostingsList postings = s.getPostings( token );
+                if ( postings != null ) {
+                    lists.add( postings );
+                }
+            }
+            return lists.isEmpty() ? null : join( lists );
+        } finally {
+            release( snapshot );
+        }
+    }
+
+    /**
+     *  Joins the postings of a term from several segments. A document is
+     *  only in one segment, so the entries only have to be put in order.
+     */
+    static PostingsList join( List<PostingsList> lists ) {
+        if ( lists.size() == 1 ) {
+            return lists.get( 0 );
+        }
+        PostingsList postings = new PostingsList();
+        for ( PostingsList p : lists ) {
+            postings.addAll( p, 0 );
+        }
+        postings.getList().sort( Comparator.comparingInt( e -> e.docID ));
+        return postings;
+    }
+
+    /**
+     *  The statistics of a term, added up from the dictionary slots of the
+     *  segments.
+     */
+    public TermStats termStats( String token ) {
+        List<Segment> snapshot = acquire();
+        try {
+            int df = 0;
+            long cf = 0;
+            int maxTf = 0;
+            for ( Segment s : snapshot ) {
+                TermStats stats = s.termStats( token );
+                if ( stats != null ) {
+                    df += stats.df;
+                    cf += stats.cf;
+                    maxTf = Math.max( maxTf, stats.maxTf );
+                }
+            }
+            return df == 0 ? null : new TermStats( df, cf, maxTf );
+        } finally {
+            release( snapshot );
+        }
+    }
+
+    public List<String> prefixTerms( String prefix ) {
+        List<Segment> snapshot = acquire();
+        try {
+            TreeSet<String> terms = new TreeSet<>();
+            for ( Segment s : snapshot ) {
+                Iterator<SortedTermDictionary.TermEntry> it = s.prefix( prefix );
+                while ( it.hasNext() ) {
+                    terms.add( it.next().term );
+                }
+            }
+            return new ArrayList<>( terms );
+        } finally {
+            release( snapshot );
+        }
+    }
+
+
+    /**
+     *  Iterates over the terms of several segments in order, each with its
+     *  postings from all the segments joined.
+     */
+    static class MergedTerms implements Iterator<Map.Entry<String,PostingsList>> {
+
+        final PriorityQueue<Cursor> queue = new PriorityQueue<>();
+
+        MergedTerms( List<Segment> segments ) {
+            for ( Segment s : segments ) {
+                Cursor c = new Cursor( s );
+                if ( c.advance() ) queue.add( c );
+            }
+        }
+
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        public Map.Entry<String,PostingsList> next() {
+            if ( queue.isEmpty() ) {
+                throw new NoSuchElementException();
+            }
+            String term = queue.peek().entry.term;
+            ArrayList<PostingsList> lists = new ArrayList<>();
+            while ( !queue.isEmpty() && queue.peek().entry.term.equals( term )) {
+                Cursor c = queue.poll();
+                try {
+                    lists.add( c.segment.getPostings( c.entry ));
+                } catch ( IOException e ) {
+                    throw new UncheckedIOException( e );
+                }
+                if ( c.advance() ) queue.add( c );
+            }
+            return Map.entry( term, join( lists ));
+        }
+    }
+
+    /** The next term of a segment, ordered like the sorted dictionaries. */
+    static class Cursor implements Comparable<Cursor> {
+
+        final Segment segment;
+        final Iterator<SortedTermDictionary.TermEntry> it;
+        SortedTermDictionary.TermEntry entry;
+        byte[] term;
+
+        Cursor( Segment segment ) {
+            this.segment = segment;
+            it = segment.prefix( "" );
+        }
+
+        boolean advance() {
+            if ( !it.hasNext() ) return false;
+            entry = it.next();
+            term = entry.term.getBytes( StandardCharsets.UTF_8 );
+            return true;
+        }
+
+        public int compareTo( Cursor other ) {
+            return SortedTermDictionary.compare( term, term.length, other.term, other.term.length );
+        }
+    }
+
+
+    // ==================================================================
+
+
+    public int numberOfDocs() {
+        int n = docNames.size();
+        for ( Segment s : segments ) {
+            n += s.numberOfDocs();
+        }
+        return n;
+    }
+
+    public Iterable<Integer> docIDs() {
+        ArrayList<Integer> ids = new ArrayList<>( docNames.keySet() );
+        for ( Segment s : segments ) {
+            ids.addAll( s.docs.docIDs() );
+        }
+        Collections.sort( ids );
+        return ids;
+    }
+
+    public String docName( int docID ) {
+        DocStore store = docs( segments, docID );
+        return store != null ? store.name( docID ) : docNames.get( docID );
+    }
+
+    public Integer docLength( int docID ) {
+        DocStore store = docs( segments, docID );
+        return store != null ? store.length( docID ) : docLengths.get( docID );
+    }
+
+
+    /**
+     *  Computes the euclidean lengths of all documents from the terms of all
+     *  segments, after writing the last documents as a segment.
+     */
+    public void computeEuclideanLength() {
+        flush( endOfBuffer() );
+        int N = numberOfDocs();
+        HashMap<Integer,Double> sums = new HashMap<>();
+        List<Segment> snapshot = acquire();
+        try {
+            MergedTerms terms = new MergedTerms( snapshot );
+            while ( terms.hasNext() ) {
+                PostingsList postings = terms.next().getValue();
+                double idf = Math.log( (double) N / postings.size() );
+                for ( PostingsEntry postingsEntry : postings.getList() ) {
+                    double v = postingsEntry.offsets.size() * idf;
+                    sums.merge( postingsEntry.docID, v * v, Double::sum );
+                }
+            }
+        } catch ( UncheckedIOException e ) {
+            e.printStackTrace();
+            return;
+        } finally {
+            release( snapshot );
+        }
+
+        euclideanLength.clear();
+        StringBuilder s = new StringBuilder();
+        for ( Map.Entry<Integer,Double> entry : sums.entrySet() ) {
+            double v = Math.sqrt( entry.getValue() );
+            euclideanLength.put( entry.getKey(), v );
+            s.append( entry.getKey() ).append( ":" ).append( v ).append( "\n" );
+        }
+        try ( BufferedWriter writer = new BufferedWriter( new FileWriter( INDEXDIR + "/euclidean.txt" ))) {
+            writer.write( s.toString() );
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     *  Writes the last documents as a segment. Merges that are still going
+     *  on carry on in the background.
+     */
+    public void cleanup() {
+        flush( endOfBuffer() );
+        System.err.println( segments.size() + " segments: " + segments );
+    }
+}
@@ -0,0 +1,140 @@
+package ir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ *   Inverts a batch of documents for the scalable index by sorting instead
+ *   of through a TreeMap.
+ *
+ *   Every occurrence is appended as a (termID, docID, position) triple to a
+ *   packed long array. Term IDs are local to the batch, so they are dense and
+ *   the buffer can be sorted with a single stable counting (radix) pass. Since
+ *   the indexer produces docIDs and positions in increasing order, the stable
+ *   sort keeps every postings list in the right order.
+ */
+public class SortBasedInverter implements Inverter {
+
+    /** Default number of triples that fit in the buffer before it is written. */
+    public static final int DEFAULT_CAPACITY = 1 << 21;
+
+    /** Mapping from the terms of this batch to their term IDs. */
+    HashMap<String,Integer> termIDs = new HashMap<>();
+
+    /** Mapping from term IDs to the terms of this batch. */
+    ArrayList<String> terms = new ArrayList<>();
+
+    /**
+     *  The triples, two longs each: <code>termID << 32 | docID</code>
+     *  followed by the position.
+     */
+    long[] buffer;
+
+    /** Target of the counting sort, same size as the buffer. */
+    long[] sorted;
+
+    /** Number of triples in the buffer. */
+    int size = 0;
+
+    /** Maximum number of triples in the buffer. */
+    int capacity;
+
+
+    public SortBasedInverter() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public SortBasedInverter(int capacity) {
+        this.capacity = capacity;
+        buffer = new long[2 * capacity];
+        sorted = new long[2 * capacity];
+    }
+
+
+    /**
+     *  Appends one occurrence of a token.
+     *
+     *  @return <code>true</code> if the buffer is full and should be written.
+     */
+    public boolean insert(String token, int docID, int offset) {
+        Integer termID = termIDs.get(token);
+        if (termID == null) {
+            termID = terms.size();
+            terms.add(token);
+            termIDs.put(token, termID);
+        }
+        buffer[2 * size] = ((long) termID << 32) | (docID & 0xffffffffL);
+        buffer[2 * size + 1] = offset;
+        ++size;
+        return size == capacity;
+    }
+
+    /** Number of distinct terms in the buffer. */
+    public int numberOfTerms() {
+        return terms.size();
+    }
+
+    /**
+     *  Sorts the triples by term ID and returns where the triples of each
+     *  term start in <code>sorted</code>. The triples of term <code>t</code>
+     *  are found between <code>start[t]</code> and <code>start[t+1]</code>.
+     */
+    private int[] sort() {
+        int[] start = new int[terms.size() + 1];
+        for (int i = 0; i < size; ++i) {
+            ++start[(int) (buffer[2 * i] >>> 32) + 1];
+        }
+        for (int t = 1; t < start.length; ++t) {
+            start[t] += start[t - 1];
+        }
+        int[] next = Arrays.copyOf(start, terms.size());
+        for (int i = 0; i < size; ++i) {
+            int pos = next[(int) (buffer[2 * i] >>> 32)]++;
+            sorted[2 * pos] = buffer[2 * i];
+            sorted[2 * pos + 1] = buffer[2 * i + 1];
+        }
+        return start;
+    }
+
+    /**
+     *  Writes the buffer to the data file as a run sorted by term.
+     */
+    public long writeRun(RandomAccessFile dataFile) throws IOException {
+        int[] start = sort();
+        String[] order = terms.toArray(new String[0]);
+        Arrays.sort(order);
+
+        RecordWriter writer = new RecordWriter(dataFile, 0);
+        StringBuilder s = new StringBuilder();
+        for (String term : order) {
+            int termID = termIDs.get(term);
+            s.setLength(0);
+            s.append(term).append('*');
+            int lastDocID = -1;
+            for (int i = start[termID]; i < start[termID + 1]; ++i) {
+                int docID = (int) sorted[2 * i];
+                if (docID != lastDocID) {
+                    if (lastDocID != -1) s.append('-');
+                    s.append(docID).append(':');
+                    lastDocID = docID;
+                } else {
+                    s.append(',');
+                }
+                s.append(sorted[2 * i + 1]);
+            }
+            writer.writeWithLength(s.toString());
+        }
+        writer.flush();
+        return writer.free();
+    }
+
+    /** Empties the buffer so that it can be reused for the next batch. */
+    public void clear() {
+        termIDs.clear();
+        terms.clear();
+        size = 0;
+    }
+}
@@ -0,0 +1,387 @@
+package ir;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ *  A term dictionary on disk that keeps the terms in sorted order, so that
+ *  besides exact lookups it can list all terms with a given prefix or in a
+ *  given range (e.g. for wildcard queries).
+ *
+ *  The terms are sorted by their UTF-8 bytes and stored in blocks of
+ *  <code>BLOCK_SIZE</code>. Within a block every term is front coded: only
+ *  the length of the prefix it shares with the previous term and the rest
+ *  of its bytes are stored, followed by the pointer and size of its record
+ *  in the data file. All numbers are varints. The first term of each block
+ *  and the offset of the block are kept in a small index at the end of the
+ *  file, which is loaded into memory; a lookup then reads a single block.
+ *
+ *  File layout:
+ *    magic, version, number of terms, number of blocks, offset of the index
+ *    blocks
+ *    index: for every block the length and bytes of its first term and its offset
+ */
+public class SortedTermDictionary {
+
+    public static final int MAGIC = 0x53444943;
+
+    public static final int VERSION = 1;
+
+    /** Number of terms per block. */
+    public static final int BLOCK_SIZE = 16;
+
+    static final int HEADER_SIZE = 24;
+
+    /** A term and where its postings are found in the data file. */
+    public static class TermEntry {
+        public String term;
+        public long ptr;
+        public int size;
+
+        public TermEntry(String term, long ptr, int size) {
+            this.term = term;
+            this.ptr = ptr;
+            this.size = size;
+        }
+    }
+
+
+    RandomAccessFile file;
+
+    /** Reads the blocks without moving the file pointer. */
+    ChannelReader reader;
+
+    int numberOfTerms;
+
+    /** The first term of each block. */
+    byte[][] firstTerms;
+
+    /** The offset of each block, and the end of the last block. */
+    long[] blockOffsets;
+
+
+    /**
+     *  Opens a dictionary written by <code>write</code>.
+     */
+    public SortedTermDictionary( String filename ) throws IOException {
+        file = new RandomAccessFile( filename, "r" );
+        if ( file.length() < HEADER_SIZE || file.readInt() != MAGIC ) {
+            file.close();
+            throw new IOException( "Not a sorted term dictionary: " + filename );
+        }
+        file.readInt();   // version
+        numberOfTerms = file.readInt();
+        int blocks = file.readInt();
+        long indexOffset = file.readLong();
+        firstTerms = new byte[blocks][];
+        blockOffsets = new long[blocks + 1];
+        file.seek( indexOffset );
+        for ( int i=0; i<blocks; i++ ) {
+            firstTerms[i] = new byte[file.readInt()];
+            file.readFully( firstTerms[i] );
+            blockOffsets[i] = file.readLong();
+        }
+        blockOffsets[blocks] = indexOffset;
+        reader = new ChannelReader( file );
+    }
+
+
+    public int size() {
+        return numberOfTerms;
+    }
+
+
+    public void close() throws IOException {
+        file.close();
+    }
+
+
+    /**
+     *  Returns the entry of a term, or <code>null</code> if it is not in the
+     *  dictionary.
+     */
+    public TermEntry get( String term ) {
+        byte[] key = term.getBytes( StandardCharsets.UTF_8 );
+        Iterator<TermEntry> it = new TermIterator( key, key, false );
+        return it.hasNext() ? it.next() : null;
+    }
+
+
+    /**
+     *  Iterates over the terms starting with <code>prefix</code>, in order.
+     */
+    public Iterator<TermEntry> prefix( String prefix ) {
+        byte[] key = prefix.getBytes( StandardCharsets.UTF_8 );
+        return new TermIterator( key, key, true );
+    }
+
+
+    /**
+     *  Iterates over the terms <code>t</code> with <code>from &lt;= t &lt; to</code>,
+     *  in order. Either bound can be <code>null</code>.
+     */
+    public Iterator<TermEntry> range( String from, String to ) {
+        return new TermIterator( from == null ? new byte[0] : from.getBytes( StandardCharsets.UTF_8 ),
+                                 to == null ? null : to.getBytes( StandardCharsets.UTF_8 ), false );
+    }
+
+
+    /**
+     *  Decodes the blocks from the one that can contain <code>from</code>,
+     *  and returns the terms from <code>from</code> on until the end condition
+     *  fails: the term has to start with <code>end</code> if
+     *  <code>endIsPrefix</code>, and otherwise be smaller than <code>end</code>
+     *  (or, if <code>end == from</code>, equal to it).
+     */
+    private class TermIterator implements Iterator<TermEntry> {
+
+        final byte[] from;
+        final byte[] end;
+        final boolean endIsPrefix;
+        final boolean exact;
+
+        int block;
+        byte[] data;
+        int[] pos = new int[1];
+        int termsLeft;
+        byte[] term = new byte[64];
+        int termLength = 0;
+        long lastPtr;
+        int lastSize;
+        TermEntry next;
+        boolean done = false;
+
+        TermIterator( byte[] from, byte[] end, boolean endIsPrefix ) {
+            this.from = from;
+            this.end = end;
+            this.endIsPrefix = endIsPrefix;
+            exact = !endIsPrefix && end == from;
+            block = findBlock( from );
+            if ( block < 0 ) {
+                block = 0;
+            }
+            advance();
+        }
+
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        public TermEntry next() {
+            if ( next == null ) {
+                throw new NoSuchElementException();
+            }
+            TermEntry entry = next;
+            advance();
+            return entry;
+        }
+
+        private void advance() {
+            next = null;
+            while ( !done ) {
+                if ( !readTerm() ) {
+                    done = true;
+                    return;
+                }
+                int c = compare( term, termLength, from, from.length );
+                if ( c < 0 ) {
+                    continue;
+                }
+                if ( exact ) {
+                    done = true;
+                    if ( c != 0 ) return;
+                } else if ( endIsPrefix ) {
+                    if ( !startsWith( end )) {
+                        done = true;
+                        return;
+                    }
+                } else if ( end != null && compare( term, termLength, end, end.length ) >= 0 ) {
+                    done = true;
+                    return;
+                }
+                next = new TermEntry( new String( term, 0, termLength, StandardCharsets.UTF_8 ), lastPtr, lastSize );
+                return;
+            }
+        }
+
+        /** Decodes the next term, moving on to the next block if needed. */
+        private boolean readTerm() {
+            while ( data == null || termsLeft == 0 ) {
+                if ( block >= firstTerms.length ) {
+                    return false;
+                }
+                data = readBlock( block++ );
+                if ( data == null ) {
+                    return false;
+                }
+                pos[0] = 0;
+                termsLeft = readVarint( data, pos );
+                termLength = 0;
+            }
+            int shared = readVarint( data, pos );
+            int suffix = readVarint( data, pos );
+            if ( shared + suffix > term.length ) {
+                term = Arrays.copyOf( term, Math.max( 2*term.length, shared + suffix ));
+            }
+            System.arraycopy( data, pos[0], term, shared, suffix );
+            pos[0] += suffix;
+            termLength = shared + suffix;
+            lastPtr = readVarlong( data, pos );
+            lastSize = readVarint( data, pos );
+            termsLeft--;
+            return true;
+        }
+
+        private boolean startsWith( byte[] prefix ) {
+            if ( termLength < prefix.length ) return false;
+            for ( int i=0; i<prefix.length; i++ ) {
+                if ( term[i] != prefix[i] ) return false;
+            }
+            return true;
+        }
+    }
+
+
+    /** Returns the last block whose first term is at most <code>key</code>, or -1. */
+    private int findBlock( byte[] key ) {
+        int lo = 0;
+        int hi = firstTerms.length - 1;
+        int found = -1;
+        while ( lo <= hi ) {
+            int mid = ( lo + hi ) >>> 1;
+            if ( compare( firstTerms[mid], firstTerms[mid].length, key, key.length ) <= 0 ) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private byte[] readBlock( int block ) {
+        try {
+            byte[] data = new byte[(int) ( blockOffsets[block+1] - blockOffsets[block] )];
+            reader.read( blockOffsets[block], data );
+            return data;
+        } catch ( IOException e ) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+
+    // ==================================================================
+
+
+    /**
+     *  Writes a dictionary of the given entries, in any order.
+     */
+    public static void write( String filename, List<TermEntry> entries ) throws IOException {
+        int n = entries.size();
+        byte[][] terms = new byte[n][];
+        Integer[] order = new Integer[n];
+        for ( int i=0; i<n; i++ ) {
+            terms[i] = entries.get( i ).term.getBytes( StandardCharsets.UTF_8 );
+            order[i] = i;
+        }
+        Arrays.sort( order, ( a, b ) -> compare( terms[a], terms[a].length, terms[b], terms[b].length ));
+
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( filename ), 1 << 16 ));
+        int blocks = ( n + BLOCK_SIZE - 1 ) / BLOCK_SIZE;
+        long[] offsets = new long[blocks];
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        out.writeInt( MAGIC );
+        out.writeInt( VERSION );
+        out.writeInt( n );
+        out.writeInt( blocks );
+        out.writeLong( 0 );   // offset of the index, filled in below
+        long offset = HEADER_SIZE;
+        for ( int b=0; b<blocks; b++ ) {
+            block.reset();
+            int first = b * BLOCK_SIZE;
+            int count = Math.min( BLOCK_SIZE, n - first );
+            writeVarint( block, count );
+            byte[] previous = new byte[0];
+            for ( int i=first; i<first+count; i++ ) {
+                byte[] term = terms[order[i]];
+                TermEntry entry = entries.get( order[i] );
+                int shared = 0;
+                while ( shared < previous.length && shared < term.length && previous[shared] == term[shared] ) {
+                    shared++;
+                }
+                writeVarint( block, shared );
+                writeVarint( block, term.length - shared );
+                block.write( term, shared, term.length - shared );
+                writeVarlong( block, entry.ptr );
+                writeVarint( block, entry.size );
+                previous = term;
+            }
+            offsets[b] = offset;
+            block.writeTo( out );
+            offset += block.size();
+        }
+        for ( int b=0; b<blocks; b++ ) {
+            byte[] first = terms[order[b * BLOCK_SIZE]];
+            out.writeInt( first.length );
+            out.write( first );
+            out.writeLong( offsets[b] );
+        }
+        out.close();
+
+        RandomAccessFile raf = new RandomAccessFile( filename, "rw" );
+        raf.seek( 16 );
+        raf.writeLong( offset );
+        raf.close();
+    }
+
+
+    /** Compares UTF-8 byte strings as unsigned bytes, i.e. in code point order. */
+    static int compare( byte[] a, int aLength, byte[] b, int bLength ) {
+        int n = Math.min( aLength, bLength );
+        for ( int i=0; i<n; i++ ) {
+            int c = ( a[i] & 0xff ) - ( b[i] & 0xff );
+            if ( c != 0 ) return c;
+        }
+        return aLength - bLength;
+    }
+
+    private static void writeVarint( ByteArrayOutputStream out, int n ) {
+        writeVarlong( out, n & 0xffffffffL );
+    }
+
+    private static void writeVarlong( ByteArrayOutputStream out, long n ) {
+        while (( n & ~0x7fL ) != 0 ) {
+            out.write( (int) (( n & 0x7f ) | 0x80 ));
+            n >>>= 7;
+        }
+        out.write( (int) n );
+    }
+
+    private static int readVarint( byte[] data, int[] pos ) {
+        return (int) readVarlong( data, pos );
+    }
+
+    private static long readVarlong( byte[] data, int[] pos ) {
+        int p = pos[0];
+        long n = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[p++];
+            n |= (long) ( b & 0x7f ) << shift;
+            shift += 7;
+        } while ( b < 0 );
+        pos[0] = p;
+        return n;
+    }
+}
@@ -39,7 +39,8 @@ public class SpellChecker {
 
         public Double getSizePostingList() {
             if (sizePostingList == null) {
-                sizePostingList = (double) index.getPostings(token).size();
+                TermStats stats = index.termStats(token);
+                sizePostingList = stats == null ? 0. : stats.df;
             }
             return sizePostingList;
         }
@@ -142,8 +143,7 @@ public class SpellChecker {
         List<List<KGramStat>> qCorrections = new ArrayList<>();
 
         for (Query.QueryTerm q : query.queryterm) {
-            PostingsList token = index.getPostings(q.term);
-            if (token == null) {
+            if (index.termStats(q.term) == null) {
                 HashSet<String> grams = kgIndex.getKgram(q.term, false);
                 ArrayList<String> candidates = jaccardCandidates(grams);
                 ArrayList<KGramStat> res = calculateLevenshteinDistance(candidates, q.term);
@@ -0,0 +1,48 @@
+package ir;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ *  Drops stop words, i.e. very frequent words (like "the" and "of") that
+ *  make for huge postings lists while saying little about a document.
+ */
+public class StopFilter implements TokenFilter {
+
+    final CharArraySet stopwords;
+
+    public StopFilter( CharArraySet stopwords ) {
+        this.stopwords = stopwords;
+    }
+
+    public boolean accept( CharSlice token ) {
+        return !stopwords.contains( token );
+    }
+
+
+    /**
+     *  Reads the stop words from file, one per line. Lines starting with "//"
+     *  are comments.
+     */
+    public static StopFilter read( String filename ) {
+        CharArraySet stopwords = new CharArraySet();
+        try {
+            BufferedReader in = new BufferedReader( new InputStreamReader( new FileInputStream( filename ), StandardCharsets.UTF_8 ));
+            String line;
+            while (( line = in.readLine()) != null ) {
+                line = line.trim();
+                if ( !line.startsWith( "//" ) && line.length() > 0 ) {
+                    stopwords.add( line );
+                }
+            }
+            in.close();
+        }
+        catch ( IOException e ) {
+            System.err.println( "Warning: IOException reading the stop words from file" );
+        }
+        return new StopFilter( stopwords );
+    }
+}
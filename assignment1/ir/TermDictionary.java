@@ -0,0 +1,112 @@
+package ir;
+
+import java.util.Arrays;
+
+/**
+ *  Assigns consecutive term IDs (0, 1, 2, ...) to the terms of the
+ *  collection.
+ *
+ *  A term can be looked up straight from the tokenizer's CharSlice, using
+ *  the hash code the token queue computed when the token was read. Only a
+ *  term that has not been seen before is turned into a String. Uses open
+ *  addressing with linear probing.
+ */
+public class TermDictionary {
+
+    /** For each slot, the term ID + 1, or 0 if the slot is empty. */
+    int[] table = new int[1 << 16];
+
+    /** The terms, by term ID. */
+    String[] terms = new String[1 << 15];
+
+    /** The hash codes of the terms, by term ID. */
+    int[] hashes = new int[1 << 15];
+
+    /** Number of terms. */
+    int size = 0;
+
+
+    public int size() {
+        return size;
+    }
+
+    /** Returns the term with the given ID. */
+    public String term( int termID ) {
+        return terms[termID];
+    }
+
+    /**
+     *  Returns the ID of a term, or -1 if it is not in the dictionary.
+     */
+    public int lookup( CharSequence term ) {
+        int h = term.hashCode();
+        int mask = table.length - 1;
+        int i = spread( h ) & mask;
+        while ( table[i] != 0 ) {
+            int id = table[i] - 1;
+            if ( hashes[id] == h && equals( terms[id], term )) {
+                return id;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     *  Returns the ID of a term, adding the term if it is new. A new term
+     *  gets the ID <code>size()</code> had before the call.
+     */
+    public int add( CharSequence term ) {
+        int h = term.hashCode();
+        int mask = table.length - 1;
+        int i = spread( h ) & mask;
+        while ( table[i] != 0 ) {
+            int id = table[i] - 1;
+            if ( hashes[id] == h && equals( terms[id], term )) {
+                return id;
+            }
+            i = (i + 1) & mask;
+        }
+        int id = size++;
+        if ( id == terms.length ) {
+            terms = Arrays.copyOf( terms, 2*terms.length );
+            hashes = Arrays.copyOf( hashes, 2*hashes.length );
+        }
+        terms[id] = term.toString();
+        hashes[id] = h;
+        table[i] = id + 1;
+        if ( 2*size > table.length ) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        table = new int[2*table.length];
+        int mask = table.length - 1;
+        for ( int id=0; id<size; id++ ) {
+            int i = spread( hashes[id] ) & mask;
+            while ( table[i] != 0 ) {
+                i = (i + 1) & mask;
+            }
+            table[i] = id + 1;
+        }
+    }
+
+    private static int spread( int h ) {
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equals( String s, CharSequence t ) {
+        int n = s.length();
+        if ( n != t.length() ) {
+            return false;
+        }
+        for ( int i=0; i<n; i++ ) {
+            if ( s.charAt( i ) != t.charAt( i )) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
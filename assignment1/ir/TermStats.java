@@ -0,0 +1,42 @@
+package ir;
+
+/**
+ *  Statistics of a term that can be known without reading its postings.
+ */
+public class TermStats {
+
+    /** Number of documents the term occurs in. */
+    public final int df;
+
+    /** Number of times the term occurs in the collection. */
+    public final long cf;
+
+    /** Largest number of times the term occurs in one document. */
+    public final int maxTf;
+
+
+    public TermStats( int df, long cf, int maxTf ) {
+        this.df = df;
+        this.cf = cf;
+        this.maxTf = maxTf;
+    }
+
+    /** The statistics of a postings list, or null if there is none. */
+    public static TermStats of( PostingsList postings ) {
+        if ( postings == null ) {
+            return null;
+        }
+        long cf = 0;
+        int maxTf = 0;
+        for ( int i=0; i<postings.size(); i++ ) {
+            int tf = postings.get( i ).offsets.size();
+            cf += tf;
+            maxTf = Math.max( maxTf, tf );
+        }
+        return new TermStats( postings.size(), cf, maxTf );
+    }
+
+    public String toString() {
+        return "df=" + df + " cf=" + cf + " maxTf=" + maxTf;
+    }
+}
@@ -0,0 +1,78 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ *  Decides which segments of a SegmentedIndex are merged.
+ *
+ *  The segments are put in tiers by their size: tier 0 holds the segments
+ *  smaller than <code>floorBytes</code>, and each following tier segments
+ *  up to <code>mergeFactor</code> times larger than the one before. When a
+ *  tier holds <code>mergeFactor</code> segments, the smallest of them are
+ *  merged into one segment, which then belongs to a higher tier. Only
+ *  segments of about the same size are thus merged, so every document is
+ *  rewritten about once per tier, and the number of segments a search has
+ *  to look in grows with the logarithm of the size of the index.
+ *
+ *  Segments of more than <code>maxMergedBytes</code> are not merged any
+ *  more, which bounds the cost of a single merge.
+ */
+public class TieredMergePolicy {
+
+    /** Number of segments of a tier that are merged at once. */
+    int mergeFactor = 4;
+
+    /** Segments smaller than this are all in the lowest tier. */
+    long floorBytes = 1L << 20;
+
+    /** Segments larger than this are left as they are. */
+    long maxMergedBytes = 4L << 30;
+
+
+    public TieredMergePolicy() {
+    }
+
+    public TieredMergePolicy( int mergeFactor, long floorBytes, long maxMergedBytes ) {
+        this.mergeFactor = mergeFactor;
+        this.floorBytes = floorBytes;
+        this.maxMergedBytes = maxMergedBytes;
+    }
+
+
+    /** The tier of a segment of <code>bytes</code> bytes. */
+    int tier( long bytes ) {
+        int tier = 0;
+        for ( long limit = floorBytes; bytes >= limit && tier < 62; limit *= mergeFactor ) {
+            tier++;
+        }
+        return tier;
+    }
+
+
+    /**
+     *  Returns the segments to merge next, or null if no tier is full.
+     *
+     *  @param segments The live segments.
+     *  @param merging The segments that are being merged already.
+     */
+    public List<Segment> findMerge( List<Segment> segments, Collection<Segment> merging ) {
+        ArrayList<ArrayList<Segment>> tiers = new ArrayList<>();
+        for ( Segment s : segments ) {
+            if ( merging.contains( s ) || s.bytes() > maxMergedBytes ) continue;
+            int t = tier( s.bytes() );
+            while ( tiers.size() <= t ) tiers.add( new ArrayList<>() );
+            tiers.get( t ).add( s );
+        }
+        // The lowest full tier first: its merges are the cheapest
+        for ( ArrayList<Segment> tier : tiers ) {
+            if ( tier.size() >= mergeFactor ) {
+                tier.sort( Comparator.comparingLong( Segment::bytes ));
+                return new ArrayList<>( tier.subList( 0, mergeFactor ));
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,18 @@
+package ir;
+
+/**
+ *  One step of the processing a token goes through after the tokenizer,
+ *  before it is indexed or used in a query.
+ *
+ *  A filter gets a view of the token in the tokenizer's own buffers, and
+ *  may change it in place (e.g. shorten it) or drop it. Filters should
+ *  not allocate per token, and must be safe to use from several threads.
+ */
+public interface TokenFilter {
+
+    /**
+     *  @return <code>true</code> if the (possibly changed) token should be
+     *          kept, <code>false</code> if it should be dropped.
+     */
+    boolean accept( CharSlice token );
+}
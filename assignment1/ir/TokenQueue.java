@@ -0,0 +1,118 @@
+package ir;
+
+import java.util.Arrays;
+
+/**
+ *  The tokens the tokenizer has found but not yet emitted, as a ring
+ *  buffer of (start, length) pairs into a char arena.
+ *
+ *  The characters are copied into the arena when a token is added, since
+ *  the tokenizer's own buffer may be refilled before the token is emitted.
+ *  The arena is reused once the queue has been emptied, so adding and
+ *  polling tokens allocates nothing once the arrays have grown large enough.
+ *
+ *  The hash code of a token is computed while it is copied, so that the
+ *  indexer can look it up in the term dictionary without reading it again.
+ */
+public class TokenQueue {
+
+    /** The characters of the queued tokens. */
+    char[] chars = new char[1024];
+
+    /** Number of characters used in the arena. */
+    int used = 0;
+
+    /** Start of each queued token in the arena. */
+    int[] start = new int[64];
+
+    /** Length of each queued token. */
+    int[] length = new int[64];
+
+    /** Hash code of each queued token. */
+    int[] hash = new int[64];
+
+    /** Ring position of the first token in the queue. */
+    int head = 0;
+
+    /** Number of tokens in the queue. */
+    int size = 0;
+
+    /** The view handed out by <code>poll</code>. */
+    private final CharSlice view = new CharSlice();
+
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Removes all tokens from the queue. */
+    public void clear() {
+        used = 0;
+        head = 0;
+        size = 0;
+    }
+
+    /** Adds a copy of <code>buf[off..off+len)</code> to the end of the queue. */
+    public void add( char[] buf, int off, int len ) {
+        if ( size == 0 ) {
+            // Nobody refers to the arena any more
+            used = 0;
+            head = 0;
+        }
+        if ( used + len > chars.length ) {
+            chars = Arrays.copyOf( chars, Math.max( 2*chars.length, used+len ));
+        }
+        if ( size == start.length ) {
+            grow();
+        }
+        int h = 0;
+        for ( int i=0; i<len; i++ ) {
+            char c = buf[off+i];
+            chars[used+i] = c;
+            h = 31*h + c;
+        }
+        int tail = (head + size) % start.length;
+        start[tail] = used;
+        length[tail] = len;
+        hash[tail] = h;
+        used += len;
+        size++;
+    }
+
+    /**
+     *  Removes the first token from the queue. The returned view is reused,
+     *  and is only valid until the next token is added.
+     *
+     *  @return the first token, or <code>null</code> if the queue is empty.
+     */
+    public CharSlice poll() {
+        if ( size == 0 ) {
+            return null;
+        }
+        view.set( chars, start[head], length[head] );
+        view.setHash( hash[head] );
+        head = (head + 1) % start.length;
+        size--;
+        return view;
+    }
+
+    /** Doubles the ring, keeping the queued tokens in order. */
+    private void grow() {
+        int[] newStart = new int[2*start.length];
+        int[] newLength = new int[2*length.length];
+        int[] newHash = new int[2*hash.length];
+        for ( int i=0; i<size; i++ ) {
+            newStart[i] = start[(head + i) % start.length];
+            newLength[i] = length[(head + i) % length.length];
+            newHash[i] = hash[(head + i) % hash.length];
+        }
+        start = newStart;
+        length = newLength;
+        hash = newHash;
+        head = 0;
+    }
+}
@@ -9,14 +9,6 @@ package ir;
 
 import java.io.Reader;
 import java.io.IOException;
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.util.List;
-import java.util.Arrays;
-import java.util.ArrayList;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
-import java.util.regex.PatternSyntaxException;
 import java.lang.System;
 
 
@@ -65,14 +57,42 @@ public class Tokenizer {
     /** Starting position of current token, or -1 if we're between tokens. */
     int token_start = -1;
 
+    /** The prefilter classes (see @code{PatternSet}) of the characters in the current token. */
+    int token_mask = 0;
+
     /** The next tokens to emit. */
-    ArrayList<String> token_queue = new ArrayList<String>();
+    TokenQueue token_queue = new TokenQueue();
 
     /** @code{true} if we've started reading tokens. */
     boolean started_reading = false;
 
     /** The patterns matching non-standard words (e-mail addresses, etc.) */
-    ArrayList<Pattern> patterns = null;
+    PatternSet patterns = null;
+
+    /** Finds the first of the patterns that occurs in a token. */
+    PatternSet.Finder finder = null;
+
+    /** View of the current token candidate in the buffer, used as matcher input. */
+    CharSlice candidate = new CharSlice();
+
+    /**
+     *  Every char is classified by a lookup in a table with one entry per char.
+     *  The low 16 bits of an entry hold the normalized char, bits 16-17 hold
+     *  its class, and the bits from @code{MASK_SHIFT} its prefilter classes
+     *  (see @code{PatternSet}).
+     */
+    static final int TOKEN_CHAR = 1 << 16;
+    static final int PUNCTUATION = 1 << 17;
+    static final int MASK_SHIFT = 18;
+
+    /** The tables for each combination of case folding and diacritics removal. */
+    private static final int[][] CHAR_TABLES = new int[4][];
+
+    /** The table for the current settings. */
+    private int[] table;
+
+    /** The settings @code{table} was made for. */
+    private int table_settings = -1;
 
     /** Special characters (with diacritics) can be translated into these characters. */
     public static final char[] SPECIAL_CHAR_MAPPING = {
@@ -105,10 +125,114 @@ public class Tokenizer {
     }
 
 
+    /**
+     *  Constructor for tokenizers sharing already compiled patterns
+     *  (see @code{Analyzer}).
+     *
+     *  @param patterns The patterns for non-standard words, or <code>null</code>.
+     */
+    public Tokenizer( Reader reader, boolean case_folding, boolean remove_diacritics, boolean remove_punctuation, PatternSet patterns ) {
+        this.reader = reader;
+        this.case_folding = case_folding;
+        this.remove_diacritics = remove_diacritics;
+        this.remove_punctuation = remove_punctuation;
+        if ( patterns != null ) {
+            this.patterns = patterns;
+            finder = patterns.finder();
+        }
+    }
+
+
+    /**
+     *  Starts tokenizing a new text, reusing the buffers of this tokenizer.
+     */
+    public void reset( Reader reader ) {
+        this.reader = reader;
+        ptr = 0;
+        token_start = -1;
+        token_mask = 0;
+        token_queue.clear();
+        started_reading = false;
+        // An empty text does not overwrite the buffer
+        buf[0] = 0;
+    }
+
+
     /** 
      *  Returns true if the character is a punctuation character.
      */
     public boolean punctuation( char c ) {
+        return ( charTable()[c] & PUNCTUATION ) != 0;
+    }
+
+
+    /**
+     *  Returns the lookup table for the current settings. The tables are
+     *  shared by all tokenizers, and built the first time they are needed.
+     */
+    private int[] charTable() {
+        int settings = ( case_folding ? 1 : 0 ) | ( remove_diacritics ? 2 : 0 );
+        if ( settings != table_settings ) {
+            synchronized ( CHAR_TABLES ) {
+                if ( CHAR_TABLES[settings] == null ) {
+                    CHAR_TABLES[settings] = buildCharTable( case_folding, remove_diacritics );
+                }
+                table = CHAR_TABLES[settings];
+            }
+            table_settings = settings;
+        }
+        return table;
+    }
+
+
+    /**
+     *  Builds the lookup table for the given settings, by classifying every 
+     *  char the way @code{normalize} used to do it one char at a time.
+     */
+    private static int[] buildCharTable( boolean case_folding, boolean remove_diacritics ) {
+        int[] table = new int[65536];
+        for ( int i=0; i<table.length; i++ ) {
+            char c = (char) i;
+            char normalized = c;
+            boolean token_char = false;
+            if ( Character.isLetter( c )) {
+                if ( remove_diacritics ) {
+                    // Remove diacritics by mapping to the closest character 
+                    // without diacritics.
+                    // The mapping ends at U+017C, so Ž and ž are kept as they are.
+                    if ( c >= '\u00c0' && c-'\u00c0' < SPECIAL_CHAR_MAPPING.length ) {
+                        normalized = SPECIAL_CHAR_MAPPING[(int)(c-'\u00c0')];
+                    }
+                }
+                if ( case_folding ) {
+                    normalized = Character.toLowerCase( normalized );
+                }
+                token_char = true;
+            }
+            else if ( c >= '!' && c <= '~' ) {
+                token_char = true;
+            }
+            int entry = token_char ? normalized | TOKEN_CHAR | PatternSet.charMask( normalized ) << MASK_SHIFT : c;
+            if ( isPunctuation( c )) {
+                entry |= PUNCTUATION;
+            }
+            table[i] = entry;
+        }
+        return table;
+    }
+
+
+    /**
+     *  Returns true if the character can occur in a token. A text can be
+     *  split at any other character without changing how it is tokenized.
+     */
+    public boolean tokenChar( char c ) {
+        return ( charTable()[c] & TOKEN_CHAR ) != 0;
+    }
+
+
+    /** The punctuation test the table is built from. */
+    private static boolean isPunctuation( char c ) {
         if ( c >= 32 && c <= 47 )
             return true;
         if ( c >= 58 && c <= 64 )
@@ -125,23 +249,8 @@ public class Tokenizer {
      *  Read the patterns that match non-standard words  
      */
     private void readPatterns( String filename ) {
-        patterns = new ArrayList<Pattern>();
-        String line = null;
-        try {
-            BufferedReader in = new BufferedReader( new FileReader( filename ));
-            while (( line = in.readLine()) != null ) {
-                line = line.trim();
-                if ( !line.startsWith( "//" ) && line.length() > 0 ) {
-                    patterns.add( Pattern.compile( line ));
-                }
-            }
-        }
-        catch ( IOException e ) {
-            System.err.println( "Warning: IOException reading the regular expressions from file" );
-        }
-        catch ( PatternSyntaxException e ) {
-            System.err.println( "ERROR: Malformed regular expression: " + line );
-        }
+        patterns = PatternSet.read( filename );
+        finder = patterns.finder();
     }
 
 
@@ -154,21 +263,9 @@ public class Tokenizer {
      *   can occur within a token, and @code{false} otherwise.
      */
     public boolean normalize( char[] buf, int ptr ) {
-        char c = buf[ptr];
-        if ( Character.isLetter( c )) {
-            if ( remove_diacritics ) {
-                // Remove diacritics by mapping to the closest character 
-                // without diacritics.
-                if ( c >= '\u00c0' && c <= '\u017e' ) {
-                    buf[ptr] = SPECIAL_CHAR_MAPPING[(int)(c-'\u00c0')];
-                }
-            }
-            if ( case_folding ) {
-                buf[ptr] = Character.toLowerCase( buf[ptr] );
-            }
-            return true;
-        }
-        if ( c >= '!' && c <= '~' ) {
+        int entry = charTable()[buf[ptr]];
+        if (( entry & TOKEN_CHAR ) != 0 ) {
+            buf[ptr] = (char) entry;
             return true;
         }
         // This is not a character that can occur in a token.
@@ -186,7 +283,7 @@ public class Tokenizer {
             readTokens();
             started_reading = true;
         }
-        if ( token_queue.size() == 0 ) 
+        if ( token_queue.isEmpty() ) 
             return readTokens();
         else 
             return true;
@@ -198,15 +295,23 @@ public class Tokenizer {
      *  are no more tokens.
      */
     public String nextToken() throws IOException { 
-        if ( token_queue.size() == 0 ) {
-            if ( readTokens() )
-                return token_queue.remove( 0 );
-            else
-                return null;
-        }
-        else {
-            return token_queue.remove( 0 );
+        CharSlice token = nextTokenSlice();
+        return token == null ? null : token.toString();
+    }
+
+
+    /**
+     *  Like @code{nextToken}, but returns a view of the token instead of
+     *  a new String. The view is reused, and is only valid until the next 
+     *  call to @code{hasMoreTokens} or @code{nextTokenSlice}.
+     *
+     *  @return the next token, or @code{null} if there are no more tokens.
+     */
+    public CharSlice nextTokenSlice() throws IOException { 
+        if ( token_queue.isEmpty() && !readTokens() ) {
+            return null;
         }
+        return token_queue.poll();
     }
 
 
@@ -218,18 +323,24 @@ public class Tokenizer {
             refillBuffer( 0 );
             started_reading = true;
         }
+        int[] table = charTable();
         boolean token_added_to_queue = false;
         while ( buf[ptr] != 0 ) {
+            int entry = table[buf[ptr]];
             if ( token_start < 0 ) {
-                if ( normalize( buf, ptr )) {
+                if (( entry & TOKEN_CHAR ) != 0 ) {
                     // A token starts here
+                    buf[ptr] = (char) entry;
                     token_start = ptr;
+                    token_mask = entry >>> MASK_SHIFT;
                 }
                 ptr++;
             }
             else {
-                if ( normalize( buf, ptr )) {
+                if (( entry & TOKEN_CHAR ) != 0 ) {
                     // We're in the middle of a token
+                    buf[ptr] = (char) entry;
+                    token_mask |= entry >>> MASK_SHIFT;
                     ptr++;
                 }
                 else {
@@ -271,63 +382,58 @@ public class Tokenizer {
         if ( token_start < 0 ) {
             return false;
         }
-        String s = new String( buf, token_start, ptr-token_start );
         if ( patterns != null ) {
-            // Now let's see if the string s matches one of the patterns 
-            // for non-standard words
-            for ( Pattern p : patterns ) {
-                Matcher m = p.matcher( s );
-                if ( m.find() ) {
-                    // The string contains a non-standard word. First check the prefix 
-                    // before the matching substring, then add the non-standard word  
-                    // to the token queue, then check the remainder of the string.
-                    addStandardTokensToQueue( s.substring(0, m.start() ));
-                    token_queue.add( m.group() );
-                    token_start += m.end();
-                    addTokensToQueue();
-                    return true;
-                }
+            // Now let's see if the candidate buf[token_start..ptr) matches one 
+            // of the patterns for non-standard words
+            candidate.set( buf, token_start, ptr-token_start );
+            if ( finder.find( candidate, token_mask )) {
+                // The string contains a non-standard word. First check the prefix 
+                // before the matching substring, then add the non-standard word  
+                // to the token queue, then check the remainder of the string.
+                int start = token_start + finder.start();
+                int end = token_start + finder.end();
+                addStandardTokensToQueue( token_start, start );
+                token_queue.add( buf, start, end-start );
+                token_start = end;
+                addTokensToQueue();
+                return true;
             }
         }
         // This string contains only standard words
-        return addStandardTokensToQueue( s );
+        return addStandardTokensToQueue( token_start, ptr );
     }
 
 
     /**
      *  Adds standard tokens (i.e. tokens not matching any regular
-     *  expression) to the queue.
+     *  expression) in buf[from..to) to the queue.
      */
-    private boolean addStandardTokensToQueue( String s ) {
-        // This string s does not match any specific pattern.
+    private boolean addStandardTokensToQueue( int from, int to ) {
+        // This string does not match any specific pattern.
         // Then split it, considering all punctuation symbols
         // to be separators.
+        int[] table = charTable();
         boolean tokens_found = false;
-        StringBuffer smallbuf = new StringBuffer();
-        for ( int i=0; i<s.length(); i++ ) {
-            if ( punctuation( s.charAt( i ))) {
+        int start = from;
+        for ( int i=from; i<to; i++ ) {
+            if (( table[buf[i]] & PUNCTUATION ) != 0 ) {
                 // The string before the punctuation sign is a token
                 // unless it is empty
-                String t = smallbuf.toString();
-                if ( t.length()>0 ) {
-                    token_queue.add( t );
-                    smallbuf = new StringBuffer();
+                if ( i>start ) {
+                    token_queue.add( buf, start, i-start );
                     tokens_found = true;
                 }
                 if ( !remove_punctuation ) {
-                    token_queue.add( "" + s.charAt( i ));
+                    token_queue.add( buf, i, 1 );
                     tokens_found = true;
                 }
-            }
-            else {
-                smallbuf.append( s.charAt( i ));
+                start = i+1;
             }
         }
         // The string after the last punctuation sign is a token
         // unless it is empty
-        String t = smallbuf.toString();
-        if ( t.length()>0 ) {
-            token_queue.add( t );
+        if ( to>start ) {
+            token_queue.add( buf, start, to-start );
             tokens_found = true;
         }   
         return tokens_found;
@@ -338,9 +444,18 @@ public class Tokenizer {
      *  Refills the buffer and adds end_of_file "\0" at the appropriate place.
      */
     private void refillBuffer( int start ) throws IOException {
-        int chars_read = reader.read( buf, start, BUFFER_LENGTH-start );
-        if ( chars_read >= 0 && chars_read < BUFFER_LENGTH-start ) {
-            buf[chars_read] = 0;
+        // A reader may return fewer chars than asked for before the end
+        // of the input, so keep reading until the buffer is full.
+        int end = start;
+        while ( end < BUFFER_LENGTH ) {
+            int chars_read = reader.read( buf, end, BUFFER_LENGTH-end );
+            if ( chars_read < 0 ) {
+                break;
+            }
+            end += chars_read;
+        }
+        if ( end < BUFFER_LENGTH ) {
+            buf[end] = 0;
         }
     }
 
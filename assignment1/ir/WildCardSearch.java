@@ -4,6 +4,8 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public class WildCardSearch {
 
@@ -23,6 +25,9 @@ public class WildCardSearch {
 
     ArrayList<PostingsList> queryPostings;
 
+    /** Looks up the postings of the expanded words concurrently, if not null. */
+    Executor fetcher;
+
     /**
      * Constructor
      *
@@ -36,7 +41,26 @@ public class WildCardSearch {
         this.queryType = queryType;
     }
 
+    /**
+     * @param fetcher Runs the postings lookups of the expanded words
+     */
+    public WildCardSearch(Index index, KGramIndex kgIndex, Query query, QueryType queryType, Executor fetcher) {
+        this(index, kgIndex, query, queryType);
+        this.fetcher = fetcher;
+    }
+
     public PostingsList wilcardWord(String term) {
+        // merge postings over the query words
+        PostingsList ans = union(expand(term));
+        //ans.weight = queryWords.size();
+        return ans;
+    }
+
+    /**
+     * Returns the words of the index that match a wildcard term, without
+     * looking up their postings.
+     */
+    public HashSet<String> expand(String term) {
         int position = term.indexOf("*");
         String[] parts = term.split("\\*");
         HashSet<String> Kgrams;
@@ -59,12 +83,18 @@ public class WildCardSearch {
             regexWord = "^" + parts[0] + "\\w*" + parts[1] + "$";
         }
 
-        HashSet<String> queryWords = candidateTokens(Kgrams, regexWord);
-
-        // merge postings over the query words
-        PostingsList ans = union(queryWords);
-        //ans.weight = queryWords.size();
-        return ans;
+        HashSet<String> queryWords;
+        List<String> prefixTerms = position > 0 ? index.prefixTerms(term.substring(0, position)) : null;
+        if (prefixTerms != null) {
+            // The index can list the terms with the prefix before the '*' itself
+            queryWords = new HashSet<>();
+            for (String word : prefixTerms) {
+                if (word.matches(regexWord)) queryWords.add(word);
+            }
+        } else {
+            queryWords = candidateTokens(Kgrams, regexWord);
+        }
+        return queryWords;
     }
 
     public ArrayList<PostingsList> getQeryPostings () {
@@ -73,11 +103,31 @@ public class WildCardSearch {
 
     private PostingsList union(HashSet<String> queryWords) {
         ArrayList<PostingsList> postingsLists = new ArrayList<>();
-        for (String word : queryWords) {
-            PostingsList postingsList = index.getPostings(word);
-            if (postingsList != null) postingsLists.add(postingsList);
+        if (fetcher != null) {
+            ArrayList<CompletableFuture<PostingsList>> fetches = new ArrayList<>();
+            for (String word : queryWords) {
+                fetches.add(index.getPostingsAsync(word, fetcher));
+            }
+            for (CompletableFuture<PostingsList> fetch : fetches) {
+                PostingsList postingsList = fetch.join();
+                if (postingsList != null) postingsLists.add(postingsList);
+            }
+        } else {
+            for (String word : queryWords) {
+                PostingsList postingsList = index.getPostings(word);
+                if (postingsList != null) postingsLists.add(postingsList);
+            }
         }
 
+        return combine(postingsLists);
+    }
+
+    /**
+     * Combines the postings of the words a wildcard term was expanded to,
+     * when they have been looked up by the caller. For a ranked query the
+     * lists are only kept in <code>queryPostings</code>, and null is returned.
+     */
+    public PostingsList combine(ArrayList<PostingsList> postingsLists) {
         queryPostings = postingsLists;
         if (queryType.equals(QueryType.RANKED_QUERY)) return null;
         return union(postingsLists);